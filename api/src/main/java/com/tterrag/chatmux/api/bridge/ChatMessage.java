@@ -1,11 +1,22 @@
 package com.tterrag.chatmux.api.bridge;
 
 import reactor.core.publisher.Mono;
+import reactor.util.annotation.Nullable;
 
 public interface ChatMessage<M extends ChatMessage<M>> {
 
     ChatService<M> getService();
     
+    /**
+     * An identifier for this message, unique within its service.
+     * 
+     * @return The message ID, or null if the service does not have them
+     */
+    @Nullable
+    default String getId() {
+        return null;
+    }
+    
     String getChannel();
     
     String getChannelId();
@@ -0,0 +1,28 @@
+package com.tterrag.chatmux.benchmarks;
+
+/**
+ * Hands out payloads round-robin, so that a benchmark does not keep measuring the same (possibly constant folded) input.
+ */
+public final class Cycle<T> {
+
+    private final T[] values;
+    private int next;
+
+    @SafeVarargs
+    public Cycle(T... values) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("Nothing to cycle through");
+        }
+        this.values = values;
+    }
+
+    public T next() {
+        T ret = values[next];
+        next = next + 1 == values.length ? 0 : next + 1;
+        return ret;
+    }
+
+    public int size() {
+        return values.length;
+    }
+}
@@ -0,0 +1,45 @@
+package com.tterrag.chatmux.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import emoji4j.EmojiUtils;
+
+/**
+ * Emoji conversion as done on every message bridged to and from Discord and Factorio.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmojiBenchmark {
+
+    private Cycle<String> messages;
+
+    @Setup
+    public void setup() {
+        messages = new Cycle<>(Payloads.lines("bridge-messages.txt"));
+    }
+
+    @Benchmark
+    public String emojify() {
+        return EmojiUtils.emojify(messages.next());
+    }
+
+    @Benchmark
+    public String shortCodify() {
+        return EmojiUtils.shortCodify(messages.next());
+    }
+}
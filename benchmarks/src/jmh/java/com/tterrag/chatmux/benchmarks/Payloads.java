@@ -0,0 +1,36 @@
+package com.tterrag.chatmux.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the sample payloads under {@code /payloads}, one payload per line.
+ */
+public final class Payloads {
+
+    private Payloads() {}
+
+    public static String[] lines(String name) {
+        InputStream in = Payloads.class.getResourceAsStream("/payloads/" + name);
+        if (in == null) {
+            throw new IllegalArgumentException("No such payload file: " + name);
+        }
+        List<String> ret = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    ret.add(line);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return ret.toArray(new String[0]);
+    }
+}
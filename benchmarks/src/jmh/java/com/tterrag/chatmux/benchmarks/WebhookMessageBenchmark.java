@@ -0,0 +1,46 @@
+package com.tterrag.chatmux.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tterrag.chatmux.discord.util.WebhookMessage;
+
+/**
+ * Serialization of the webhook payload sent for every message relayed into Discord.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebhookMessageBenchmark {
+
+    private Cycle<WebhookMessage> messages;
+
+    @Setup
+    public void setup() {
+        String[] contents = Payloads.lines("bridge-messages.txt");
+        WebhookMessage[] webhooks = new WebhookMessage[contents.length];
+        for (int i = 0; i < contents.length; i++) {
+            webhooks[i] = new WebhookMessage(contents[i], "BeltWeaver (twitch)",
+                    "https://static-cdn.jtvnw.net/jtv_user_pictures/beltweaver-profile_image-300x300.png");
+        }
+        messages = new Cycle<>(webhooks);
+    }
+
+    @Benchmark
+    public String serialize() {
+        return messages.next().toString();
+    }
+}
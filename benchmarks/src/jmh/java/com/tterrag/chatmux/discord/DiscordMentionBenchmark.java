@@ -0,0 +1,146 @@
+package com.tterrag.chatmux.discord;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tterrag.chatmux.benchmarks.Cycle;
+import com.tterrag.chatmux.benchmarks.Payloads;
+
+import discord4j.common.util.Snowflake;
+import emoji4j.EmojiUtils;
+import reactor.core.publisher.Flux;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+/**
+ * Mention handling in both directions: stripping Discord mentions from inbound messages, and turning names in
+ * messages bound for Discord back into mentions.
+ * <p>
+ * Both run the same steps as {@link DiscordMessage} and {@link DiscordSource}, but the guild is an in-memory
+ * fixture instead of a gateway client, so only the parsing and rewriting is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiscordMentionBenchmark {
+
+    private static final class Entity {
+
+        final Snowflake id;
+        final String name;
+        final String username;
+        final boolean animated;
+
+        Entity(long id, String name, String username, boolean animated) {
+            this.id = Snowflake.of(id);
+            this.name = name;
+            this.username = username;
+            this.animated = animated;
+        }
+    }
+
+    private static final Snowflake GUILD = Snowflake.of(176780432371744769L);
+
+    private static final int FILLER_MEMBERS = 500, FILLER_CHANNELS = 40, FILLER_EMOJIS = 60;
+
+    private final List<Entity> members = new ArrayList<>();
+    private final List<Entity> channels = new ArrayList<>();
+    private final List<Entity> roles = new ArrayList<>();
+    private final List<Entity> emojis = new ArrayList<>();
+
+    private final Map<Snowflake, Entity> byId = new HashMap<>();
+
+    private final GuildNameIndex.Names memberNames = new GuildNameIndex.Names();
+    private final GuildNameIndex.Names channelNames = new GuildNameIndex.Names();
+    private final GuildNameIndex.Names emojiNames = new GuildNameIndex.Names();
+
+    private final MentionNames mentions = new MentionNames(new MentionNames.Lookup() {
+
+        @Override
+        public Flux<Tuple2<Snowflake, String>> channels(Snowflake guildId, Set<Snowflake> ids) {
+            return Flux.fromIterable(channels).map(c -> Tuples.of(c.id, c.name));
+        }
+
+        @Override
+        public Flux<Tuple2<Snowflake, String>> roles(Snowflake guildId, Set<Snowflake> ids) {
+            return Flux.fromIterable(roles).map(r -> Tuples.of(r.id, r.name));
+        }
+
+        @Override
+        public Flux<Tuple2<Snowflake, String>> members(Snowflake guildId, Set<Snowflake> ids) {
+            return Flux.fromIterable(ids).mapNotNull(byId::get).map(m -> Tuples.of(m.id, m.name));
+        }
+    });
+
+    private Cycle<String> inbound, outbound;
+
+    @Setup
+    public void setup() {
+        members.add(new Entity(182243011543597056L, "tterrag", "tterrag", false));
+        members.add(new Entity(200112233445566778L, "BeltWeaver", "belt_weaver", false));
+        members.add(new Entity(345678901234567890L, "SpaghettiFactory", "spaghetti", false));
+        members.add(new Entity(356789012345678901L, "Ron", "RonSwanson", false));
+        channels.add(new Entity(601234567890123456L, "blueprints", "", false));
+        channels.add(new Entity(612345678901234567L, "factorio-chat", "", false));
+        channels.add(new Entity(623456789012345678L, "old-base", "", false));
+        roles.add(new Entity(604123498765123584L, "Players", "", false));
+        emojis.add(new Entity(731234567812345678L, "KEKW", "", false));
+        emojis.add(new Entity(600987654321098765L, "partyblob", "", true));
+        for (int i = 0; i < FILLER_MEMBERS; i++) {
+            members.add(new Entity(400000000000000000L + i, "Member " + i, "member" + i, false));
+        }
+        for (int i = 0; i < FILLER_CHANNELS; i++) {
+            channels.add(new Entity(500000000000000000L + i, "channel-" + i, "", false));
+        }
+        for (int i = 0; i < FILLER_EMOJIS; i++) {
+            emojis.add(new Entity(700000000000000000L + i, "emote" + i, "", i % 4 == 0));
+        }
+        Stream.of(members, channels, roles, emojis).flatMap(List::stream).forEach(e -> byId.put(e.id, e));
+        members.forEach(m -> memberNames.put(m.id, "<@" + m.id.asString() + ">", m.name, m.username));
+        channels.forEach(c -> channelNames.put(c.id, "<#" + c.id.asString() + ">", c.name));
+        emojis.forEach(e -> emojiNames.put(e.id, (e.animated ? "<a:" : "<:") + e.name + ":" + e.id.asString() + ">", e.name));
+
+        inbound = new Cycle<>(Payloads.lines("discord-messages.txt"));
+        outbound = new Cycle<>(Payloads.lines("bridge-messages.txt"));
+    }
+
+    /**
+     * Same steps as {@code DiscordMessage#create}. Names are looked up in the fixture on the first miss, and come from
+     * the cache afterwards.
+     */
+    @Benchmark
+    public String stripMentions() {
+        return mentions.strip(GUILD, inbound.next()).block();
+    }
+
+    /**
+     * Same steps as {@code DiscordSource#discordify}, once the guild is indexed.
+     */
+    @Benchmark
+    public String parseMentions() {
+        String s = outbound.next();
+        s = DiscordSource.replace(DiscordSource.MENTION, memberNames, s);
+        s = DiscordSource.replace(DiscordSource.CHANNEL, channelNames, s);
+        s = DiscordSource.replace(DiscordSource.EMOTE, emojiNames, s);
+        return EmojiUtils.emojify(s);
+    }
+}
@@ -0,0 +1,43 @@
+package com.tterrag.chatmux.factorio;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tterrag.chatmux.benchmarks.Cycle;
+import com.tterrag.chatmux.benchmarks.Payloads;
+
+/**
+ * Matching of server console lines against the chat, join/leave and command patterns.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FactorioParseBenchmark {
+
+    private Cycle<String> lines;
+
+    @Setup
+    public void setup() {
+        // Messages need the service instance
+        new FactorioService();
+        lines = new Cycle<>(Payloads.lines("factorio-console.log"));
+    }
+
+    @Benchmark
+    public FactorioMessage parseLine() {
+        return FactorioClient.parseLine(lines.next());
+    }
+}
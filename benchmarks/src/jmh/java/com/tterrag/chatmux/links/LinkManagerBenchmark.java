@@ -0,0 +1,184 @@
+package com.tterrag.chatmux.links;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tterrag.chatmux.api.bridge.ChatChannel;
+import com.tterrag.chatmux.api.bridge.ChatMessage;
+import com.tterrag.chatmux.api.bridge.ChatService;
+import com.tterrag.chatmux.api.bridge.ChatSource;
+import com.tterrag.chatmux.api.config.ServiceConfig;
+import com.tterrag.chatmux.benchmarks.Cycle;
+import com.tterrag.chatmux.benchmarks.Payloads;
+import com.tterrag.chatmux.bridge.AbstractChatMessage;
+import com.tterrag.chatmux.bridge.AbstractChatService;
+import com.tterrag.chatmux.bridge.ChatChannelImpl;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+/**
+ * Routing of inbound messages through {@link JsonBackedLinkManager} to every linked channel, and looking up the
+ * copies of a relayed message afterwards.
+ * <p>
+ * The services are in-memory fakes which send synchronously, so a single emission runs the whole route on the calling
+ * thread: fan-out, delivery queues, sending, and indexing the sent copies.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LinkManagerBenchmark {
+
+    private static final int INDEXED_MESSAGES = 10_000;
+
+    static final class BenchMessage extends AbstractChatMessage<BenchMessage> {
+
+        private final String id;
+
+        BenchMessage(ChatService<BenchMessage> service, String channel, String user, String content, String id) {
+            super(service, channel, user, content, null);
+            this.id = id;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public Mono<Void> delete() {
+            return Mono.empty();
+        }
+
+        @Override
+        public Mono<Void> kick() {
+            return Mono.empty();
+        }
+
+        @Override
+        public Mono<Void> ban() {
+            return Mono.empty();
+        }
+    }
+
+    static final class BenchSource implements ChatSource<BenchMessage> {
+
+        private final BenchService service;
+
+        final Sinks.Many<BenchMessage> inbound = Sinks.many().multicast().directBestEffort();
+
+        private long nextId;
+
+        BenchSource(BenchService service) {
+            this.service = service;
+        }
+
+        @Override
+        public ChatService<BenchMessage> getType() {
+            return service;
+        }
+
+        @Override
+        public Flux<BenchMessage> connect(String channel) {
+            return inbound.asFlux();
+        }
+
+        @Override
+        public Mono<BenchMessage> send(String channel, ChatMessage<?> payload, boolean raw) {
+            return Mono.just(new BenchMessage(service, channel, payload.getUser(), payload.getContent(), Long.toString(++nextId)));
+        }
+
+        @Override
+        public void disconnect(String channel) {}
+    }
+
+    static final class BenchService extends AbstractChatService<BenchMessage, BenchSource> {
+
+        BenchService(String name) {
+            super(name);
+        }
+
+        @Override
+        protected BenchSource createSource() {
+            return new BenchSource(this);
+        }
+
+        @Override
+        public ServiceConfig<?> getConfig() {
+            return null;
+        }
+    }
+
+    /**
+     * How many channels the source channel is linked to.
+     */
+    @Param({ "1", "4" })
+    int targets;
+
+    private JsonBackedLinkManager manager;
+    private BenchService source;
+    private final List<Disposable> links = new ArrayList<>();
+
+    private Cycle<String> contents;
+    private long nextId;
+
+    private Cycle<String> indexed;
+
+    @Setup
+    public void setup() {
+        manager = new JsonBackedLinkManager(Collections.emptyList());
+        source = new BenchService("bench-source");
+        source.initialize();
+        ChatChannel<BenchMessage> from = new ChatChannelImpl<>("general", source);
+        for (int i = 0; i < targets; i++) {
+            BenchService target = new BenchService("bench-target-" + i);
+            target.initialize();
+            links.add(manager.connect(from, new ChatChannelImpl<>("relay", target), false));
+        }
+        contents = new Cycle<>(Payloads.lines("bridge-messages.txt"));
+
+        String[] ids = new String[INDEXED_MESSAGES];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = route().getId();
+        }
+        indexed = new Cycle<>(ids);
+    }
+
+    @TearDown
+    public void tearDown() {
+        links.forEach(Disposable::dispose);
+        links.clear();
+    }
+
+    @Benchmark
+    public BenchMessage route() {
+        BenchMessage message = new BenchMessage(source, "general", "BeltWeaver", contents.next(), Long.toString(++nextId));
+        source.getSource().inbound.emitNext(message, Sinks.EmitFailureHandler.FAIL_FAST);
+        return message;
+    }
+
+    @Benchmark
+    public List<ChatMessage<BenchMessage>> lookup() {
+        return manager.getLinkedMessages(source, indexed.next());
+    }
+}
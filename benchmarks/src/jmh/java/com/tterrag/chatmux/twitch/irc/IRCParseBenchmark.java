@@ -0,0 +1,61 @@
+package com.tterrag.chatmux.twitch.irc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.tterrag.chatmux.benchmarks.Cycle;
+import com.tterrag.chatmux.benchmarks.Payloads;
+
+/**
+ * Parsing of Twitch chat, line by line and as whole websocket frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IRCParseBenchmark {
+
+    private Cycle<String> lines;
+
+    /**
+     * All sample lines in one frame, as Twitch batches them.
+     */
+    private String frame;
+
+    private final IRCFrameDecoder decoder = new IRCFrameDecoder();
+
+    @Setup
+    public void setup() {
+        String[] payloads = Payloads.lines("twitch-irc.txt");
+        lines = new Cycle<>(payloads);
+        frame = String.join("\r\n", payloads) + "\r\n";
+    }
+
+    @Benchmark
+    public IRCEvent parse() {
+        return IRCEvent.parse(lines.next());
+    }
+
+    @Benchmark
+    public Object parseLegacyRegex() {
+        return LegacyIRCParser.parse(lines.next());
+    }
+
+    @Benchmark
+    public void decodeFrame(Blackhole bh) {
+        decoder.decode(frame, bh::consume);
+    }
+}
@@ -0,0 +1,58 @@
+package com.tterrag.chatmux.twitch.irc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * The regex based parser {@link IRCEvent} used before {@link IRCLine}, kept as a baseline to compare against.
+ */
+final class LegacyIRCParser {
+
+    private static final Pattern MESSAGE = Pattern.compile("^(?:@(.*)\\s)?:(\\w+)!\\w+@\\w+\\.tmi\\.twitch\\.tv PRIVMSG #(\\w+) :(.+)$");
+
+    private static final Map<String, IRCEvent.Message.Tag> TAGS = new HashMap<>();
+
+    static {
+        for (IRCEvent.Message.Tag tag : IRCEvent.Message.Tag.values()) {
+            TAGS.put(tag.getKey(), tag);
+        }
+    }
+
+    private LegacyIRCParser() {}
+
+    /**
+     * @return The tags, user, channel and content of a message, the string "PING", or null for anything else
+     */
+    static Object parse(String raw) {
+        if (raw.trim().equals("PING :tmi.twitch.tv")) {
+            return "PING";
+        }
+
+        Matcher m = MESSAGE.matcher(raw.trim());
+        if (m.matches()) {
+            String tags = m.group(1);
+            ImmutableMap<IRCEvent.Message.Tag, String> tagMap;
+            if (tags == null) {
+                tagMap = ImmutableMap.of();
+            } else {
+                ImmutableMap.Builder<IRCEvent.Message.Tag, String> builder = ImmutableMap.builder();
+                String[] tagArr = tags.split(";");
+                for (String tag : tagArr) {
+                    String[] tagData = tag.split("=");
+                    IRCEvent.Message.Tag tagId = TAGS.get(tagData[0]);
+                    if (tagId != null && tagData.length > 1) {
+                        builder.put(tagId, tagData[1]);
+                    }
+                }
+                tagMap = builder.build();
+            }
+            return new Object[] { tagMap, m.group(2), m.group(3), m.group(4) };
+        }
+
+        return null;
+    }
+}
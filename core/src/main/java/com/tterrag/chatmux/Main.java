@@ -17,9 +17,11 @@ import com.tterrag.chatmux.bridge.AbstractChatService;
 import com.tterrag.chatmux.config.ConfigData;
 import com.tterrag.chatmux.config.ConfigReader;
 import com.tterrag.chatmux.links.JsonBackedLinkManager;
+import com.tterrag.chatmux.logging.PerformanceProfile;
+import com.tterrag.chatmux.metrics.MetricsServer;
+import com.tterrag.chatmux.util.Diagnostics;
 
 import lombok.extern.slf4j.Slf4j;
-import reactor.core.publisher.Hooks;
 import reactor.core.publisher.Mono;
 import reactor.util.annotation.Nullable;
 
@@ -56,7 +58,12 @@ public class Main {
             }
         }
         
-        Hooks.onOperatorDebug();
+        PerformanceProfile.install();
+        Diagnostics.setPerformanceProfile(cfg.isPerformanceProfile());
+        
+        if (cfg.getMetrics().isEnabled()) {
+            MetricsServer.start(cfg.getMetrics());
+        }
         
         services.forEach(ChatService::initialize);
         
@@ -24,5 +24,18 @@ public class ConfigData {
     
     @PreserveNotNull
     private List<PermissionEntry> moderators = new ArrayList<>();
+    
+    /**
+     * Turns off wiretaps, per-signal logging and operator debug, and lowers the noisiest log levels. Can also be
+     * switched at runtime with the {@code ~profile} command.
+     */
+    @PreserveNotNull
+    private boolean performanceProfile;
+    
+    /**
+     * The Prometheus endpoint, off by default.
+     */
+    @PreserveNotNull
+    private MetricsData metrics = new MetricsData();
 
 }
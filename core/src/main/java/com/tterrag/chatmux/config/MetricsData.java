@@ -0,0 +1,23 @@
+package com.tterrag.chatmux.config;
+
+import com.electronwill.nightconfig.core.conversion.PreserveNotNull;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+@EqualsAndHashCode
+@ToString
+@Getter
+public class MetricsData {
+    
+    @PreserveNotNull
+    private boolean enabled;
+    
+    @PreserveNotNull
+    private String host = "127.0.0.1";
+    
+    @PreserveNotNull
+    private int port = 9464;
+
+}
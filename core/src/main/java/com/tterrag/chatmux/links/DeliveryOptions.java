@@ -0,0 +1,38 @@
+package com.tterrag.chatmux.links;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Value;
+import reactor.util.annotation.Nullable;
+
+/**
+ * Per-link settings for the {@link DeliveryQueue} in front of the link's target.
+ */
+@Value
+public class DeliveryOptions {
+    
+    private static final int DEFAULT_CAPACITY = 256;
+    private static final long DEFAULT_TIMEOUT = 5000;
+    
+    public static final DeliveryOptions DEFAULT = new DeliveryOptions(DEFAULT_CAPACITY, OverflowPolicy.DROP_OLDEST, DEFAULT_TIMEOUT);
+    
+    /**
+     * The maximum amount of messages waiting to be sent to the target.
+     */
+    int capacity;
+    
+    OverflowPolicy overflow;
+    
+    /**
+     * How long, in milliseconds, a message may wait for room in the queue when using {@link OverflowPolicy#BLOCK}.
+     */
+    long timeout;
+    
+    @JsonCreator
+    DeliveryOptions(@JsonProperty("capacity") int capacity, @JsonProperty("overflow") @Nullable OverflowPolicy overflow, @JsonProperty("timeout") long timeout) {
+        this.capacity = capacity > 0 ? capacity : DEFAULT_CAPACITY;
+        this.overflow = overflow == null ? OverflowPolicy.DROP_OLDEST : overflow;
+        this.timeout = timeout > 0 ? timeout : DEFAULT_TIMEOUT;
+    }
+}
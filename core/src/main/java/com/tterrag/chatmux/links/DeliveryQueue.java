@@ -0,0 +1,206 @@
+package com.tterrag.chatmux.links;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.tterrag.chatmux.api.bridge.ChatMessage;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * A bounded queue of messages waiting to be sent to a single link target. Messages are sent one at a time, in order,
+ * and whatever does not fit is handled according to the {@link OverflowPolicy} of the link's {@link DeliveryOptions}.
+ */
+@Slf4j
+class DeliveryQueue<M extends ChatMessage<?>> {
+
+    @RequiredArgsConstructor
+    private class Waiter {
+
+        final M message;
+        final MonoSink<Void> sink;
+    }
+
+    private final String name;
+    private final DeliveryOptions options;
+    private final Function<M, Mono<?>> sender;
+
+    private final Deque<M> queue = new ArrayDeque<>();
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+
+    private boolean sending;
+    private boolean closed;
+
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    DeliveryQueue(String name, DeliveryOptions options, Function<M, Mono<?>> sender) {
+        this.name = name;
+        this.options = options;
+        this.sender = sender;
+    }
+
+    /**
+     * Adds a message to this queue.
+     *
+     * @return A {@link Mono} which completes once the message has been queued or dropped. This is always immediate
+     *         unless the policy is {@link OverflowPolicy#BLOCK}, in which case the message is only added once it is
+     *         subscribed to, and is dropped if the subscription is cancelled before then.
+     */
+    Mono<Void> offer(M message) {
+        synchronized (this) {
+            if (closed) {
+                return Mono.empty();
+            }
+            if (queue.size() < options.getCapacity()) {
+                queue.add(message);
+            } else {
+                switch (options.getOverflow()) {
+                    case DROP_NEWEST:
+                        drop(message);
+                        break;
+                    case COALESCE:
+                        if (queue.stream().anyMatch(m -> isDuplicate(m, message))) {
+                            coalesced.incrementAndGet();
+                        } else {
+                            // Nothing to merge with, same as DROP_OLDEST
+                            replaceOldest(message);
+                        }
+                        break;
+                    case DROP_OLDEST:
+                        replaceOldest(message);
+                        break;
+                    case BLOCK:
+                        return Mono.<Void>create(sink -> enqueueWaiter(new Waiter(message, sink)))
+                                .timeout(Duration.ofMillis(options.getTimeout()), Mono.empty());
+                }
+            }
+        }
+        drain();
+        return Mono.empty();
+    }
+
+    private void enqueueWaiter(Waiter waiter) {
+        synchronized (this) {
+            if (closed) {
+                waiter.sink.success();
+                return;
+            }
+            waiters.add(waiter);
+        }
+        waiter.sink.onCancel(() -> {
+            synchronized (this) {
+                if (waiters.remove(waiter)) {
+                    drop(waiter.message);
+                }
+            }
+        });
+        // The queue may have drained between the capacity check and now
+        drain();
+    }
+
+    private boolean isDuplicate(M queued, M message) {
+        return Objects.equals(queued.getUserId(), message.getUserId()) && Objects.equals(queued.getContent(), message.getContent());
+    }
+
+    private void replaceOldest(M message) {
+        drop(queue.poll());
+        queue.add(message);
+    }
+
+    private void drop(M message) {
+        long count = dropped.incrementAndGet();
+        if (count == 1 || count % 100 == 0) {
+            log.warn("Delivery queue for {} is full, {} message(s) dropped so far. Latest: {}", name, count, message);
+        }
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            M next = null;
+            List<Waiter> admitted = new ArrayList<>();
+            synchronized (this) {
+                if (!sending && !closed && !queue.isEmpty()) {
+                    next = queue.poll();
+                    sending = true;
+                }
+                while (!waiters.isEmpty() && queue.size() < options.getCapacity()) {
+                    Waiter waiter = waiters.poll();
+                    queue.add(waiter.message);
+                    admitted.add(waiter);
+                }
+            }
+            admitted.forEach(w -> w.sink.success());
+            if (next != null) {
+                final M message = next;
+                Mono.defer(() -> sender.apply(message))
+                        .doOnSuccess($ -> delivered.incrementAndGet())
+                        .doOnError(t -> {
+                            failed.incrementAndGet();
+                            log.error("Exception delivering message to " + name, t);
+                        })
+                        .onErrorResume(t -> Mono.empty())
+                        .doFinally($ -> {
+                            synchronized (this) {
+                                sending = false;
+                            }
+                            drain();
+                        })
+                        .subscribe();
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Discards all pending messages and releases any blocked producers. Nothing is delivered after this is called.
+     */
+    void close() {
+        Deque<Waiter> released;
+        synchronized (this) {
+            closed = true;
+            queue.clear();
+            released = new ArrayDeque<>(waiters);
+            waiters.clear();
+        }
+        released.forEach(w -> w.sink.success());
+    }
+
+    public synchronized int getDepth() {
+        return queue.size();
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+}
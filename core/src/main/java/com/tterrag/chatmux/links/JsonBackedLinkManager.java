@@ -1,86 +1,64 @@
 package com.tterrag.chatmux.links;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Multimap;
 import com.tterrag.chatmux.api.bridge.ChatChannel;
 import com.tterrag.chatmux.api.bridge.ChatMessage;
 import com.tterrag.chatmux.api.bridge.ChatService;
 import com.tterrag.chatmux.api.link.Link;
 import com.tterrag.chatmux.api.link.LinkManager;
 import com.tterrag.chatmux.api.wiretap.WiretapPlugin;
+import com.tterrag.chatmux.util.metrics.Metrics;
 
-import lombok.Value;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.Disposable;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.annotation.NonNull;
-import reactor.util.annotation.Nullable;
 
 @Slf4j
 public class JsonBackedLinkManager implements LinkManager {
     
-    @Value
-    private static class MessageKey {
-        
-        ChatService<?> type;
-        
-        String id;
-    }
+    private static final int MESSAGE_INDEX_SIZE = 1 << 16;
+    private static final long MESSAGE_INDEX_TTL = TimeUnit.MINUTES.toMillis(10);
     
-    private final Map<ChatService<?>, Multimap<String, SimpleLink>> links = new HashMap<>();
+    private final LinkRegistry links = new LinkRegistry();
     
     @NonNull
-    private final List<WiretapPlugin> callbacks;
+    private final LinkRouter router;
+    
+    private final LinkJournal journal = new LinkJournal(Paths.get("links.json"), Paths.get("links.journal"));
         
-    private final LoadingCache<MessageKey, List<ChatMessage<?>>> messageCache = CacheBuilder.newBuilder().expireAfterWrite(1, TimeUnit.MINUTES).recordStats().build(new CacheLoader<MessageKey, List<ChatMessage<?>>>() {
-        @Override
-        public List<ChatMessage<?>> load(@Nullable MessageKey key) throws Exception {
-            return new ArrayList<>();
-        }
-    });
+    @Getter
+    private final MessageIndex messageIndex = new MessageIndex(MESSAGE_INDEX_SIZE, MESSAGE_INDEX_TTL);
     
     public JsonBackedLinkManager(Collection<WiretapPlugin> callbacks) {
-        this.callbacks = ImmutableList.copyOf(callbacks);
-    }
-
-    private void saveLinks() {
-        List<SimpleLink> allLinks = getLinks();
-        try {
-            new ObjectMapper().writeValue(new File("links.json"), allLinks);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        this.router = new LinkRouter(ImmutableList.copyOf(callbacks), this::linkMessage);
+        
+        Metrics.gauge("chatmux_links", "Active links").register(() -> links.getLinks().size());
+        Metrics.gauge("chatmux_message_index_size", "Message IDs in the relayed message index").register(messageIndex::size);
+        Metrics.counterCallback("chatmux_message_index_hits_total", "Relayed message lookups which found the message").register(messageIndex::getHits);
+        Metrics.counterCallback("chatmux_message_index_misses_total", "Relayed message lookups which did not find the message").register(messageIndex::getMisses);
+        Metrics.counterCallback("chatmux_message_index_evictions_total", "Message IDs evicted from the relayed message index because it was full").register(messageIndex::getEvictions);
+        Metrics.counterCallback("chatmux_message_index_expirations_total", "Message IDs evicted from the relayed message index because they were too old").register(messageIndex::getExpirations);
+        Metrics.gauge("chatmux_message_index_hit_ratio", "Fraction of relayed message lookups which found the message").register(messageIndex::getHitRatio);
     }
 
     public Mono<Void> readLinks() {
         return Mono.fromRunnable(() -> {
             try {
-                File file = new File("links.json");
-                if (file.exists()) {
-                    List<SimpleLink> allLinks = new ObjectMapper().readValue(new File("links.json"), new TypeReference<List<SimpleLink>>() {});
-                    allLinks.stream()
-                        .filter(link -> link.getFrom().getService() != null && link.getTo().getService() != null)
-                        .map(this::connect)
-                        .forEach(this::addLink);
-                }
+                links.addAll(journal.load().stream()
+                    .filter(link -> link.getFrom().getService() != null && link.getTo().getService() != null)
+                    .map(this::connect)
+                    .collect(Collectors.toList()));
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -89,21 +67,13 @@ public class JsonBackedLinkManager implements LinkManager {
     
     private SimpleLink connect(SimpleLink unconnected) {
         return new SimpleLink(unconnected.getFrom(), unconnected.getTo(), unconnected.isRaw(),
-                connect(unconnected.getFrom(), unconnected.getTo(), unconnected.isRaw())); 
+                router.addTarget(unconnected.getFrom(), unconnected.getTo(), unconnected.isRaw(), unconnected.getDelivery()),
+                unconnected.getDelivery()); 
     }
     
     @Override
     public <M extends ChatMessage<M>> Disposable connect(ChatChannel<M> from, ChatChannel<?> to, boolean raw) {
-        return ChatChannel.connect(from)
-                .flatMap(m -> Flux.fromIterable(callbacks).flatMap(c -> c.onMessage(m, from, to))
-                        .doOnError(t -> log.error("Exception processing message", t))
-                        .onErrorResume(t -> Mono.empty())
-                        .then()
-                        .thenReturn(m))
-                .flatMap(m -> to.getService().getSource().send(to.getName(), m, raw)
-                        .doOnError(t -> log.error("Exception processing message", t))
-                        .onErrorResume(t -> Mono.empty()))
-                .subscribe(t -> log.error("Unexpected exception from connection " + from + " -> " + to, t));
+        return router.addTarget(from, to, raw, DeliveryOptions.DEFAULT);
     }
     
     @Override
@@ -113,49 +83,47 @@ public class JsonBackedLinkManager implements LinkManager {
         return ret;
     }
     
-    private void addLink(SimpleLink link) {
-        links.computeIfAbsent(link.getFrom().getService(), type -> HashMultimap.create()).put(link.getFrom().getName(), link);
-        saveLinks();
+    // Changes are serialized here so that the journal sees them in the same order as the registry
+    private synchronized void addLink(SimpleLink link) {
+        links.add(link);
+        journal.append(LinkJournal.Op.ADD, link);
     }
     
     @Override
     public List<Link> removeLink(ChatChannel<?> from, ChatChannel<?> to) {
-        Multimap<String, SimpleLink> typeLinks = links.get(from.getService());
-        Collection<SimpleLink> channelLinks = typeLinks.get(from.getName());
-        List<Link> toRemove = channelLinks.stream().filter(c -> c.getTo().equals(to)).collect(Collectors.toList());
-        if (toRemove.isEmpty()) {
-            return toRemove;
+        LinkRegistry.Removal removal;
+        synchronized (this) {
+            removal = links.remove(from, to);
+            if (removal.getRemoved().isEmpty()) {
+                return Collections.emptyList();
+            }
+            journal.append(LinkJournal.Op.REMOVE, removal.getRemoved().get(0));
         }
-        toRemove.forEach(l -> l.getSubscription().dispose());
-        channelLinks.removeAll(toRemove);
-        if (channelLinks.isEmpty()) {
+        removal.getRemoved().forEach(l -> {
+            Disposable subscription = l.getSubscription();
+            if (subscription != null) {
+                subscription.dispose();
+            }
+        });
+        if (removal.isLast()) {
             from.getService().getSource().disconnect(from.getName());
         }
-        saveLinks();
-        return toRemove;
+        return new ArrayList<>(removal.getRemoved());
     }
     
     @Override
     public List<SimpleLink> getLinks() {
-        return links.values().stream().flatMap(m -> m.values().stream()).collect(Collectors.toList());
+        return links.getLinks();
     }
     
     @Override
     public void linkMessage(ChatMessage<?> source, ChatMessage<?> linked) {
-        try {
-            messageCache.get(new MessageKey(source.getService(), source.getChannelId())).add(linked);
-        } catch (ExecutionException e) {
-            throw new RuntimeException(e);
-        }
+        messageIndex.link(source, linked);
     }
     
     @Override
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public <M extends ChatMessage<M>> List<ChatMessage<M>> getLinkedMessages(ChatService<M> type, String id) {
-        try {
-            return (List) messageCache.get(new MessageKey(type, id));
-        } catch (ExecutionException e) {
-            throw new RuntimeException(e);
-        }
+        return (List) messageIndex.get(type, id);
     }
 }
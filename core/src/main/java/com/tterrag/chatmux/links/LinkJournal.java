@@ -0,0 +1,327 @@
+package com.tterrag.chatmux.links;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.tterrag.chatmux.api.bridge.ChatChannel;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.annotation.Nullable;
+
+/**
+ * Persists links as a snapshot plus an append-only journal of the changes made since.
+ * <p>
+ * Changes are appended from a single background thread. Everything appended within {@link #FLUSH_DELAY} of the first
+ * pending change is written and fsynced together. Once the journal holds {@link #COMPACT_THRESHOLD} records it is
+ * compacted: a new snapshot is written next to the old one and moved over it atomically, then the journal is
+ * truncated.
+ * <p>
+ * Every record has a sequence number, and the snapshot stores the last one it contains. This means records that are
+ * already in the snapshot are skipped on load, even if the process died between replacing the snapshot and truncating
+ * the journal. A partially written last record is discarded, and so is a batch that failed to be written in full,
+ * as it is retried as a whole.
+ * <p>
+ * The snapshot used to be a plain list of links, which is still read. The first compaction replaces it with the new
+ * format, which older versions cannot read, so the old file is copied to {@code <snapshot>.legacy} beforehand.
+ */
+@Slf4j
+class LinkJournal {
+
+    private static final long FLUSH_DELAY = 100;
+    private static final long RETRY_DELAY = 1000;
+    private static final int COMPACT_THRESHOLD = 1000;
+
+    enum Op {
+        ADD,
+        REMOVE,
+    }
+
+    @Value
+    private static class Record {
+
+        long seq;
+
+        Op op;
+
+        SimpleLink link;
+
+        @JsonCreator
+        Record(@JsonProperty("seq") long seq, @JsonProperty("op") Op op, @JsonProperty("link") SimpleLink link) {
+            this.seq = seq;
+            this.op = op;
+            this.link = link;
+        }
+    }
+
+    @Value
+    private static class Snapshot {
+
+        long seq;
+
+        List<SimpleLink> links;
+
+        @JsonCreator
+        Snapshot(@JsonProperty("seq") long seq, @JsonProperty("links") List<SimpleLink> links) {
+            this.seq = seq;
+            this.links = links;
+        }
+    }
+
+    /**
+     * Links are removed by their endpoints, so the state is keyed by them.
+     */
+    @Value
+    private static class Endpoints {
+
+        ChatChannel<?> from, to;
+    }
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final Path tempFile;
+    private final Path legacyFile;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Scheduler scheduler = Schedulers.newSingle("link-journal", true);
+
+    /**
+     * The persisted state, only touched under the write lock.
+     */
+    private final ListMultimap<Endpoints, SimpleLink> state = LinkedListMultimap.create();
+    private long persistedSeq;
+    private int journalRecords;
+    private boolean legacySnapshot;
+    @Nullable
+    private FileChannel journal;
+
+    private final Object writeLock = new Object();
+
+    private final Deque<Record> pending = new ArrayDeque<>();
+    private long seq;
+    private boolean flushScheduled;
+
+    LinkJournal(Path snapshotFile, Path journalFile) {
+        this.snapshotFile = snapshotFile;
+        this.journalFile = journalFile;
+        this.tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        this.legacyFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".legacy");
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "link-journal-shutdown"));
+    }
+
+    /**
+     * Reads the snapshot and replays the journal on top of it. Compaction is started in the background if the journal
+     * was not empty.
+     *
+     * @return All persisted links, without subscriptions
+     */
+    List<SimpleLink> load() throws IOException {
+        synchronized (writeLock) {
+            state.clear();
+            long snapshotSeq = 0;
+            legacySnapshot = false;
+            if (Files.exists(snapshotFile)) {
+                JsonNode node = mapper.readTree(snapshotFile.toFile());
+                // links.json used to be a plain list of links
+                legacySnapshot = node.isArray();
+                Snapshot snapshot = legacySnapshot
+                        ? new Snapshot(0, mapper.convertValue(node, new TypeReference<List<SimpleLink>>() {}))
+                        : mapper.treeToValue(node, Snapshot.class);
+                snapshotSeq = snapshot.getSeq();
+                snapshot.getLinks().forEach(this::add);
+            }
+            long lastSeq = snapshotSeq;
+            int replayed = 0;
+            if (Files.exists(journalFile)) {
+                byte[] bytes = Files.readAllBytes(journalFile);
+                int start = 0;
+                for (int end = 0; end < bytes.length; end++) {
+                    if (bytes[end] != '\n') {
+                        continue;
+                    }
+                    Record record = readRecord(bytes, start, end);
+                    start = end + 1;
+                    // Records are written in order, so anything not newer than the last one is a duplicate
+                    if (record != null && record.getSeq() > lastSeq) {
+                        apply(record);
+                        lastSeq = record.getSeq();
+                        replayed++;
+                    }
+                }
+                if (start < bytes.length) {
+                    // The last record was cut off, drop it so that new records start on a fresh line
+                    log.warn("Discarding incomplete link journal record: {}", new String(bytes, start, bytes.length - start, StandardCharsets.UTF_8));
+                    try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+                        channel.truncate(start);
+                        channel.force(true);
+                    }
+                }
+            }
+            persistedSeq = lastSeq;
+            journalRecords = replayed;
+            synchronized (this) {
+                seq = lastSeq;
+            }
+            if (replayed > 0) {
+                log.info("Replayed {} link journal record(s)", replayed);
+                scheduler.schedule(this::compactQuietly);
+            }
+            return new ArrayList<>(state.values());
+        }
+    }
+
+    @Nullable
+    private Record readRecord(byte[] bytes, int start, int end) {
+        if (start == end) {
+            return null;
+        }
+        try {
+            return mapper.readValue(bytes, start, end - start, Record.class);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable link journal record: {}", new String(bytes, start, end - start, StandardCharsets.UTF_8), e);
+            return null;
+        }
+    }
+
+    void append(Op op, SimpleLink link) {
+        // Keep the live subscription out of the persisted state
+        SimpleLink persisted = new SimpleLink(link.getFrom(), link.getTo(), link.isRaw(), null, link.getDelivery());
+        synchronized (this) {
+            pending.add(new Record(++seq, op, persisted));
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        scheduler.schedule(this::flush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void add(SimpleLink link) {
+        state.put(new Endpoints(link.getFrom(), link.getTo()), link);
+    }
+
+    private void apply(Record record) {
+        switch (record.getOp()) {
+            case ADD:
+                add(record.getLink());
+                break;
+            case REMOVE:
+                state.removeAll(new Endpoints(record.getLink().getFrom(), record.getLink().getTo()));
+                break;
+        }
+    }
+
+    private void flush() {
+        synchronized (writeLock) {
+            List<Record> batch;
+            synchronized (this) {
+                batch = new ArrayList<>(pending);
+                pending.clear();
+                flushScheduled = false;
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                write(batch);
+            } catch (IOException e) {
+                log.error("Could not write link journal, retrying in {}ms", RETRY_DELAY, e);
+                synchronized (this) {
+                    for (int i = batch.size() - 1; i >= 0; i--) {
+                        pending.addFirst(batch.get(i));
+                    }
+                    flushScheduled = true;
+                }
+                scheduler.schedule(this::flush, RETRY_DELAY, TimeUnit.MILLISECONDS);
+                return;
+            }
+            if (journalRecords >= COMPACT_THRESHOLD) {
+                compactQuietly();
+            }
+        }
+    }
+
+    private void write(List<Record> batch) throws IOException {
+        FileChannel journal = this.journal;
+        if (journal == null) {
+            journal = this.journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        long size = journal.size();
+        try {
+            for (Record record : batch) {
+                byte[] bytes = mapper.writeValueAsBytes(record);
+                ByteBuffer buf = ByteBuffer.allocate(bytes.length + 1);
+                buf.put(bytes).put((byte) '\n').flip();
+                while (buf.hasRemaining()) {
+                    journal.write(buf);
+                }
+            }
+            journal.force(false);
+        } catch (IOException e) {
+            // The whole batch is written again on retry, so take back whatever part of it made it to the file
+            try {
+                journal.truncate(size);
+            } catch (IOException e2) {
+                log.warn("Could not roll back partially written link journal batch, duplicates will be skipped on load", e2);
+            }
+            throw e;
+        }
+        for (Record record : batch) {
+            apply(record);
+            persistedSeq = record.getSeq();
+        }
+        journalRecords += batch.size();
+    }
+
+    private void compactQuietly() {
+        synchronized (writeLock) {
+            try {
+                compact();
+            } catch (IOException e) {
+                log.error("Could not compact link journal", e);
+            }
+        }
+    }
+
+    private void compact() throws IOException {
+        if (legacySnapshot) {
+            Files.copy(snapshotFile, legacyFile, StandardCopyOption.REPLACE_EXISTING);
+            log.info("Link snapshot moved to a new format, the old one was kept as {}", legacyFile);
+            legacySnapshot = false;
+        }
+        try (FileChannel temp = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            temp.write(ByteBuffer.wrap(mapper.writeValueAsBytes(new Snapshot(persistedSeq, new ArrayList<>(state.values())))));
+            temp.force(true);
+        }
+        Files.move(tempFile, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        FileChannel journal = this.journal;
+        if (journal == null) {
+            journal = this.journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        journal.truncate(0);
+        journal.force(true);
+        log.debug("Compacted link journal, {} record(s) folded into a snapshot of {} link(s)", journalRecords, state.size());
+        journalRecords = 0;
+    }
+}
@@ -0,0 +1,94 @@
+package com.tterrag.chatmux.links;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.tterrag.chatmux.api.bridge.ChatChannel;
+import com.tterrag.chatmux.api.bridge.ChatService;
+
+import lombok.Value;
+
+/**
+ * The set of active links, indexed by source channel.
+ * <p>
+ * The index is an immutable snapshot which is replaced on every change, so reads never lock and always see a
+ * consistent view. Changes are serialized, and each one is applied atomically, including bulk removals.
+ */
+class LinkRegistry {
+
+    @Value
+    private static class ChannelKey {
+
+        ChatService<?> service;
+
+        String channel;
+
+        static ChannelKey of(ChatChannel<?> channel) {
+            return new ChannelKey(channel.getService(), channel.getName());
+        }
+    }
+
+    /**
+     * The result of removing links.
+     */
+    @Value
+    static class Removal {
+
+        List<SimpleLink> removed;
+
+        /**
+         * True if the source channel has no links left afterwards.
+         */
+        boolean last;
+    }
+
+    private volatile ImmutableListMultimap<ChannelKey, SimpleLink> links = ImmutableListMultimap.of();
+
+    synchronized void add(SimpleLink link) {
+        addAll(ImmutableList.of(link));
+    }
+
+    synchronized void addAll(Collection<SimpleLink> toAdd) {
+        ImmutableListMultimap.Builder<ChannelKey, SimpleLink> builder = ImmutableListMultimap.<ChannelKey, SimpleLink>builder().putAll(links);
+        for (SimpleLink link : toAdd) {
+            builder.put(ChannelKey.of(link.getFrom()), link);
+        }
+        links = builder.build();
+    }
+
+    /**
+     * Removes every link between the given channels.
+     */
+    synchronized Removal remove(ChatChannel<?> from, ChatChannel<?> to) {
+        ChannelKey key = ChannelKey.of(from);
+        List<SimpleLink> channelLinks = links.get(key);
+        List<SimpleLink> removed = new ArrayList<>();
+        List<SimpleLink> kept = new ArrayList<>();
+        for (SimpleLink link : channelLinks) {
+            (link.getTo().equals(to) ? removed : kept).add(link);
+        }
+        if (!removed.isEmpty()) {
+            ImmutableListMultimap.Builder<ChannelKey, SimpleLink> builder = ImmutableListMultimap.builder();
+            links.asMap().forEach((k, v) -> builder.putAll(k, k.equals(key) ? kept : v));
+            links = builder.build();
+        }
+        return new Removal(removed, kept.isEmpty());
+    }
+
+    /**
+     * @return All links, as of the time of the call
+     */
+    List<SimpleLink> getLinks() {
+        return links.values().asList();
+    }
+
+    /**
+     * @return All links from the given channel, as of the time of the call
+     */
+    List<SimpleLink> getLinks(ChatChannel<?> from) {
+        return links.get(ChannelKey.of(from));
+    }
+}
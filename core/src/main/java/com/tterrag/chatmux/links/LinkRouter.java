@@ -0,0 +1,195 @@
+package com.tterrag.chatmux.links;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import com.tterrag.chatmux.api.bridge.ChatChannel;
+import com.tterrag.chatmux.api.bridge.ChatMessage;
+import com.tterrag.chatmux.api.bridge.ChatService;
+import com.tterrag.chatmux.api.wiretap.WiretapPlugin;
+import com.tterrag.chatmux.util.metrics.Callback;
+import com.tterrag.chatmux.util.metrics.Counter;
+import com.tterrag.chatmux.util.metrics.Histogram;
+import com.tterrag.chatmux.util.metrics.Metrics;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.Nullable;
+
+/**
+ * Routes messages from each source channel to every link going out of it. Only one upstream subscription is made per
+ * source channel, so each inbound message is only created once no matter how many targets it is relayed to.
+ * <p>
+ * Targets are kept in an index keyed by {@code (service, channel)}, which can be added to and removed from without
+ * restarting the upstream subscription. The upstream is started with the first target and disposed with the last.
+ * Each target has its own {@link DeliveryQueue}, so a slow target does not hold up the others.
+ */
+@Slf4j
+@RequiredArgsConstructor
+class LinkRouter {
+    
+    private static final Counter INBOUND = Metrics.counter("chatmux_messages_inbound_total", "Messages received from linked channels", "service", "channel");
+    private static final Histogram WIRETAP_LATENCY = Metrics.histogram("chatmux_wiretap_seconds", "Time spent in wiretap plugins per delivered message");
+    private static final Histogram SEND_LATENCY = Metrics.histogram("chatmux_send_seconds", "Time taken to send a message to a link target", "target");
+    private static final Callback QUEUE_DEPTH = Metrics.gauge("chatmux_delivery_queue_depth", "Messages waiting to be sent to a link target", "source", "target");
+    private static final Callback DELIVERED = Metrics.counterCallback("chatmux_delivered_total", "Messages sent to a link target", "source", "target");
+    private static final Callback FAILED = Metrics.counterCallback("chatmux_delivery_failed_total", "Messages which could not be sent to a link target", "source", "target");
+    private static final Callback DROPPED = Metrics.counterCallback("chatmux_delivery_dropped_total", "Messages dropped because a delivery queue was full", "source", "target");
+    private static final Callback COALESCED = Metrics.counterCallback("chatmux_delivery_coalesced_total", "Duplicate messages merged into one already queued", "source", "target");
+
+    @Value
+    private static class ChannelKey {
+
+        ChatService<?> service;
+
+        String channel;
+    }
+
+    private class Target<M extends ChatMessage<M>> implements Disposable {
+
+        private final ChannelKey key;
+        private final ChatChannel<?> to;
+        private final boolean raw;
+
+        @Getter
+        private final DeliveryQueue<M> queue;
+        
+        private final Histogram.Child sendLatency;
+        private final Disposable metrics;
+
+        private final AtomicBoolean disposed = new AtomicBoolean();
+
+        Target(ChannelKey key, ChatChannel<M> from, ChatChannel<?> to, boolean raw, DeliveryOptions options) {
+            this.key = key;
+            this.to = to;
+            this.raw = raw;
+            this.queue = new DeliveryQueue<>(from + " -> " + to, options, m -> deliver(m, from));
+            
+            String source = from.toString(), target = to.toString();
+            this.sendLatency = SEND_LATENCY.labels(target);
+            this.metrics = Disposables.composite(
+                    QUEUE_DEPTH.register(queue::getDepth, source, target),
+                    DELIVERED.register(queue::getDelivered, source, target),
+                    FAILED.register(queue::getFailed, source, target),
+                    DROPPED.register(queue::getDropped, source, target),
+                    COALESCED.register(queue::getCoalesced, source, target));
+        }
+
+        private Mono<?> deliver(M m, ChatChannel<M> from) {
+            Mono<Void> wiretaps = Mono.empty();
+            if (!callbacks.isEmpty()) {
+                wiretaps = Mono.defer(() -> {
+                    long start = System.nanoTime();
+                    return Flux.fromIterable(callbacks).flatMap(c -> c.onMessage(m, from, to))
+                            .doOnError(t -> log.error("Exception processing message", t))
+                            .onErrorResume(t -> Mono.empty())
+                            .then()
+                            .doFinally($ -> WIRETAP_LATENCY.labels().observeNanos(System.nanoTime() - start));
+                });
+            }
+            return wiretaps
+                    .then(Mono.defer(() -> {
+                        long start = System.nanoTime();
+                        return to.getService().getSource().send(to.getName(), m, raw)
+                                .doFinally($ -> sendLatency.observeNanos(System.nanoTime() - start));
+                    }))
+                    .doOnNext(sent -> onDelivered.accept(m, sent));
+        }
+
+        @Override
+        public void dispose() {
+            if (disposed.compareAndSet(false, true)) {
+                metrics.dispose();
+                queue.close();
+                removeTarget(this);
+            }
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return disposed.get();
+        }
+    }
+
+    @RequiredArgsConstructor
+    private class Route<M extends ChatMessage<M>> {
+
+        private final ChatChannel<M> from;
+
+        private final List<Target<M>> targets = new CopyOnWriteArrayList<>();
+
+        @Nullable
+        private Disposable upstream;
+
+        void start() {
+            Counter.Child inbound = INBOUND.labels(from.getService().getName(), from.getName());
+            // Never wait on a queue here, the upstream is shared with every other channel on the same connection
+            upstream = ChatChannel.connect(from)
+                    .doOnNext($ -> inbound.inc())
+                    .doOnNext(m -> targets.forEach(t -> t.getQueue().offer(m).subscribe()))
+                    .subscribe($ -> {}, t -> log.error("Unexpected exception from connection " + from, t));
+        }
+
+        void stop() {
+            Disposable upstream = this.upstream;
+            if (upstream != null) {
+                upstream.dispose();
+            }
+            INBOUND.remove(from.getService().getName(), from.getName());
+        }
+    }
+
+    private final List<WiretapPlugin> callbacks;
+    
+    /**
+     * Called with each source message and the copy it was delivered as.
+     */
+    private final BiConsumer<ChatMessage<?>, ChatMessage<?>> onDelivered;
+
+    private final Map<ChannelKey, Route<?>> routes = new HashMap<>();
+
+    /**
+     * Adds a target to the route for the given source channel, starting the upstream subscription if this is the
+     * first target for that channel.
+     *
+     * @return A {@link Disposable} which removes this target from the route when disposed
+     */
+    synchronized <M extends ChatMessage<M>> Disposable addTarget(ChatChannel<M> from, ChatChannel<?> to, boolean raw, DeliveryOptions options) {
+        ChannelKey key = new ChannelKey(from.getService(), from.getName());
+        @SuppressWarnings("unchecked")
+        Route<M> route = (Route<M>) routes.get(key);
+        boolean created = route == null;
+        if (created) {
+            route = new Route<>(from);
+            routes.put(key, route);
+        }
+        Target<M> target = new Target<>(key, from, to, raw, options);
+        route.targets.add(target);
+        if (created) {
+            route.start();
+        }
+        return target;
+    }
+
+    private synchronized void removeTarget(Target<?> target) {
+        Route<?> route = routes.get(target.key);
+        if (route != null && route.targets.remove(target) && route.targets.isEmpty()) {
+            routes.remove(target.key);
+            route.stop();
+        }
+        // The send latency is shared by every route to the same channel
+        if (routes.values().stream().flatMap(r -> r.targets.stream()).noneMatch(t -> t.to.equals(target.to))) {
+            SEND_LATENCY.remove(target.to.toString());
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.tterrag.chatmux.links;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.common.hash.Hashing;
+import com.tterrag.chatmux.api.bridge.ChatMessage;
+import com.tterrag.chatmux.api.bridge.ChatService;
+
+import reactor.util.annotation.Nullable;
+
+/**
+ * Maps message IDs to every other message relayed along with them, in both directions: a source message finds its
+ * copies, and a copy finds its source and the other copies.
+ * <p>
+ * Entries are kept in an open-addressing table with primitive {@code long} keys. Numeric IDs such as Discord
+ * snowflakes are used as-is, and other IDs are hashed to 64 bits, with the service mixed in. Two IDs could in theory
+ * hash to the same key, so lookups check the actual ID of the stored messages, and the newer entry wins on a clash.
+ * <p>
+ * The index is bounded both in size and age. Entries are evicted oldest first, either once they are older than the
+ * configured time to live, or when the index is full.
+ */
+public class MessageIndex {
+
+    /**
+     * All messages relayed from one source message, the source being first.
+     */
+    private static final class Group {
+
+        final List<ChatMessage<?>> messages = new CopyOnWriteArrayList<>();
+
+        Group(ChatMessage<?> source) {
+            messages.add(source);
+        }
+    }
+
+    private static final long EMPTY = 0;
+
+    private final int maxSize;
+    private final long ttl;
+
+    // Hash table, with linear probing
+    private final long[] keys;
+    private final Group[] groups;
+    private final int mask;
+
+    // Insertion order, as a ring buffer, for eviction
+    private final long[] order;
+    private final long[] insertedAt;
+    private int head, size;
+
+    private long hits, misses, evictions, expirations;
+
+    /**
+     * @param maxSize
+     *            The maximum number of message IDs to keep
+     * @param ttl
+     *            How long to keep each message ID, in milliseconds
+     */
+    MessageIndex(int maxSize, long ttl) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        // Keep the table at most half full
+        int capacity = Integer.highestOneBit(Math.max(maxSize, 2) * 2 - 1) << 1;
+        this.keys = new long[capacity];
+        this.groups = new Group[capacity];
+        this.mask = capacity - 1;
+        this.order = new long[maxSize];
+        this.insertedAt = new long[maxSize];
+    }
+
+    /**
+     * Records that {@code copy} was relayed from {@code source}. Messages without an ID are not indexed.
+     */
+    synchronized void link(ChatMessage<?> source, ChatMessage<?> copy) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        Group group = null;
+        String sourceId = source.getId();
+        long sourceKey = EMPTY;
+        if (sourceId != null) {
+            sourceKey = key(source.getService(), sourceId);
+            group = find(sourceKey, source.getService(), sourceId);
+        }
+        if (group == null) {
+            group = new Group(source);
+            if (sourceId != null) {
+                put(sourceKey, group, now);
+            }
+        }
+        group.messages.add(copy);
+        String copyId = copy.getId();
+        if (copyId != null) {
+            put(key(copy.getService(), copyId), group, now);
+        }
+    }
+
+    /**
+     * Gets every message linked to the given message, not including the message itself.
+     */
+    synchronized List<ChatMessage<?>> get(ChatService<?> service, String id) {
+        expire(System.currentTimeMillis());
+        Group group = find(key(service, id), service, id);
+        if (group == null) {
+            misses++;
+            return Collections.emptyList();
+        }
+        hits++;
+        List<ChatMessage<?>> ret = new ArrayList<>(group.messages.size() - 1);
+        for (ChatMessage<?> message : group.messages) {
+            if (!isMessage(message, service, id)) {
+                ret.add(message);
+            }
+        }
+        return ret;
+    }
+
+    static long key(ChatService<?> service, String id) {
+        long key = isNumeric(id) ? Long.parseUnsignedLong(id) : Hashing.murmur3_128().hashString(id, StandardCharsets.UTF_8).asLong();
+        key ^= (long) service.getName().hashCode() * 0x9E3779B97F4A7C15L;
+        return key == EMPTY ? 1 : key;
+    }
+
+    /**
+     * @return True if the ID is a number that fits in 64 bits
+     */
+    private static boolean isNumeric(String id) {
+        int length = id.length();
+        if (length == 0 || length > 20) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return length < 20 || id.compareTo("18446744073709551615") <= 0;
+    }
+
+    private static boolean isMessage(ChatMessage<?> message, ChatService<?> service, String id) {
+        return message.getService() == service && id.equals(message.getId());
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private int indexOf(long key) {
+        for (int i = slot(key);; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return i;
+            } else if (keys[i] == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    @Nullable
+    private Group find(long key, ChatService<?> service, String id) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        Group group = groups[i];
+        for (ChatMessage<?> message : group.messages) {
+            if (isMessage(message, service, id)) {
+                return group;
+            }
+        }
+        return null;
+    }
+
+    private void put(long key, Group group, long now) {
+        int i = indexOf(key);
+        if (i >= 0) {
+            groups[i] = group;
+            return;
+        }
+        if (size == maxSize) {
+            evictOldest();
+            evictions++;
+        }
+        for (i = slot(key); keys[i] != EMPTY; i = (i + 1) & mask);
+        keys[i] = key;
+        groups[i] = group;
+        int tail = (head + size) % maxSize;
+        order[tail] = key;
+        insertedAt[tail] = now;
+        size++;
+    }
+
+    private void expire(long now) {
+        while (size > 0 && now - insertedAt[head] > ttl) {
+            evictOldest();
+            expirations++;
+        }
+    }
+
+    private void evictOldest() {
+        remove(order[head]);
+        head = (head + 1) % maxSize;
+        size--;
+    }
+
+    private void remove(long key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return;
+        }
+        // Shift later entries of the same run back, so that lookups never stop early at the hole
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                groups[i] = groups[j];
+                i = j;
+            }
+        }
+        keys[i] = EMPTY;
+        groups[i] = null;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return The amount of entries evicted because the index was full
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return The amount of entries evicted because they were too old
+     */
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+}
@@ -0,0 +1,30 @@
+package com.tterrag.chatmux.links;
+
+/**
+ * What a {@link DeliveryQueue} does with a new message when it is already at capacity.
+ */
+public enum OverflowPolicy {
+    
+    /**
+     * Discard the oldest queued message to make room for the new one.
+     */
+    DROP_OLDEST,
+    
+    /**
+     * Discard the new message, keeping everything that is already queued.
+     */
+    DROP_NEWEST,
+    
+    /**
+     * Merge the new message into an identical one (same author and content) that is already queued, so repeated spam
+     * only gets relayed once. If there is nothing to merge with, behaves like {@link #DROP_OLDEST}.
+     */
+    COALESCE,
+    
+    /**
+     * Keep the new message waiting until there is room in the queue, dropping it if no room is made before the
+     * configured timeout. Only this target's messages wait, the source channel and its other targets carry on.
+     */
+    BLOCK,
+    ;
+}
@@ -29,14 +29,16 @@ public class SimpleLink implements Link {
     @Nullable
     @Getter(onMethod = @__({@Override}))
     Disposable subscription;
+    
+    DeliveryOptions delivery;
             
     @JsonCreator
-    SimpleLink(@JsonProperty("from") ChatChannelImpl<?> from, @JsonProperty("to") ChatChannelImpl<?> to, @JsonProperty("raw") boolean raw) {
-        this((ChatChannel<?>) from, to, raw);
+    SimpleLink(@JsonProperty("from") ChatChannelImpl<?> from, @JsonProperty("to") ChatChannelImpl<?> to, @JsonProperty("raw") boolean raw, @JsonProperty("delivery") @Nullable DeliveryOptions delivery) {
+        this(from, to, raw, null, delivery == null ? DeliveryOptions.DEFAULT : delivery);
     }
     
-    SimpleLink(ChatChannel<?> from, ChatChannel<?> to, boolean raw) {
-        this(from, to, raw, null);
+    SimpleLink(ChatChannel<?> from, ChatChannel<?> to, boolean raw, @Nullable Disposable subscription) {
+        this(from, to, raw, subscription, DeliveryOptions.DEFAULT);
     }
     
     @Override
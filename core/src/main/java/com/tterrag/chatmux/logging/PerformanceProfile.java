@@ -0,0 +1,66 @@
+package com.tterrag.chatmux.logging;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.LoggerFactory;
+
+import com.tterrag.chatmux.util.Diagnostics;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Hooks;
+import reactor.util.annotation.Nullable;
+
+/**
+ * Applies the {@link Diagnostics} performance profile to the parts which are global: reactor's operator debug hook,
+ * and the levels of the noisiest loggers. The levels from logback.xml are restored when the profile is turned off.
+ */
+@Slf4j
+public class PerformanceProfile {
+    
+    private static final Map<String, Level> PROFILE_LEVELS = new HashMap<>();
+    static {
+        PROFILE_LEVELS.put(Logger.ROOT_LOGGER_NAME, Level.INFO);
+        PROFILE_LEVELS.put("io.netty", Level.WARN);
+        PROFILE_LEVELS.put("reactor", Level.WARN);
+        PROFILE_LEVELS.put("discord4j", Level.WARN);
+        PROFILE_LEVELS.put("com.tterrag.chatmux", Level.INFO);
+    }
+    
+    private static final Map<String, Level> configuredLevels = new HashMap<>();
+    
+    public static void install() {
+        Diagnostics.addListener(PerformanceProfile::apply);
+    }
+    
+    private static synchronized void apply(boolean enabled) {
+        if (enabled) {
+            Hooks.resetOnOperatorDebug();
+        } else {
+            Hooks.onOperatorDebug();
+        }
+        
+        LoggerContext context = getContext();
+        if (context != null) {
+            PROFILE_LEVELS.forEach((name, level) -> {
+                Logger logger = context.getLogger(name);
+                if (enabled) {
+                    configuredLevels.putIfAbsent(name, logger.getLevel());
+                    logger.setLevel(level);
+                } else if (configuredLevels.containsKey(name)) {
+                    logger.setLevel(configuredLevels.remove(name));
+                }
+            });
+        }
+        log.info("Performance profile {}", enabled ? "enabled" : "disabled");
+    }
+    
+    @Nullable
+    private static LoggerContext getContext() {
+        Object factory = LoggerFactory.getILoggerFactory();
+        return factory instanceof LoggerContext ? (LoggerContext) factory : null;
+    }
+}
@@ -0,0 +1,31 @@
+package com.tterrag.chatmux.metrics;
+
+import com.tterrag.chatmux.config.MetricsData;
+import com.tterrag.chatmux.util.metrics.Metrics;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * Serves {@link Metrics#scrape()} over HTTP, at {@code /metrics}, for Prometheus.
+ */
+@Slf4j
+public class MetricsServer {
+    
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    public static DisposableServer start(MetricsData config) {
+        DisposableServer server = HttpServer.create()
+                .host(config.getHost())
+                .port(config.getPort())
+                .route(routes -> routes.get("/metrics", (req, res) -> res
+                        .header(HttpHeaderNames.CONTENT_TYPE, CONTENT_TYPE)
+                        .sendString(Mono.fromSupplier(Metrics::scrape))))
+                .bindNow();
+        log.info("Serving metrics on http://{}:{}/metrics", config.getHost(), server.port());
+        return server;
+    }
+}
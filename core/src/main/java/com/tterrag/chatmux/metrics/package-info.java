@@ -0,0 +1,2 @@
+@reactor.util.annotation.NonNullApi
+package com.tterrag.chatmux.metrics;
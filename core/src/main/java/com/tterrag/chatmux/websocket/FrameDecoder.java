@@ -0,0 +1,30 @@
+package com.tterrag.chatmux.websocket;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Decodes the content of a single websocket frame into any number of inbound messages.
+ */
+@FunctionalInterface
+public interface FrameDecoder<I> {
+    
+    /**
+     * Decodes a frame. The buffer is released as soon as this returns, so it must not be retained.
+     * 
+     * @param content
+     *            The content of the frame
+     * @param out
+     *            Receives each decoded message, in order
+     */
+    void decode(ByteBuf content, Consumer<? super I> out);
+    
+    /**
+     * Creates a decoder which reads exactly one message from each frame.
+     */
+    static <I> FrameDecoder<I> single(Function<ByteBuf, ? extends I> decoder) {
+        return (content, out) -> out.accept(decoder.apply(content));
+    }
+}
@@ -1,19 +1,31 @@
 package com.tterrag.chatmux.websocket;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tterrag.chatmux.api.websocket.IFrameParser;
+import com.tterrag.chatmux.util.Diagnostics;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.handler.ssl.SslCloseCompletionEvent;
-import lombok.RequiredArgsConstructor;
+import io.netty.util.CharsetUtil;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Mono;
 import reactor.core.publisher.MonoProcessor;
@@ -29,7 +41,6 @@ import reactor.util.annotation.NonNull;
  * LGPLv3.
  */
 @Slf4j
-@RequiredArgsConstructor
 public class SimpleFrameParser<I, O> implements IFrameParser<I, O> {
 
     private static class CloseHandlerAdapter extends ChannelInboundHandlerAdapter {
@@ -65,8 +76,16 @@ public class SimpleFrameParser<I, O> implements IFrameParser<I, O> {
         }
     }
     
-    private final Function<String, I> deserializer;
-    private final Function<O, String> serializer;
+    /**
+     * The maximum size of a message, once continuation frames are aggregated.
+     */
+    private static final int MAX_FRAME_LENGTH = 1 << 20;
+    
+    private final FrameDecoder<I> decoder;
+    /**
+     * Writes an outbound message into a fresh pooled buffer.
+     */
+    private final BiConsumer<O, ByteBuf> encoder;
 
     @NonNull
     private final UnicastProcessor<I> inboundExchange = UnicastProcessor.create();
@@ -75,23 +94,63 @@ public class SimpleFrameParser<I, O> implements IFrameParser<I, O> {
     private final MonoProcessor<Void> completionNotifier = MonoProcessor.create();
 
     public SimpleFrameParser(ObjectMapper mapper, Class<? extends I> inputType) {
-        this(s -> {
+        this(buf -> {
             try {
-                return mapper.readValue(s, inputType);
+                return mapper.readValue((InputStream) new ByteBufInputStream(buf), inputType);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-        }, mapper);
+        }, jsonEncoder(mapper));
     }
     
     public SimpleFrameParser(Function<String, I> deserializer, ObjectMapper mapper) {
-        this(deserializer, t -> {
+        this(textDecoder(deserializer), jsonEncoder(mapper));
+    }
+    
+    public SimpleFrameParser(Function<String, I> deserializer, Function<O, String> serializer) {
+        this(textDecoder(deserializer), textEncoder(serializer));
+    }
+    
+    public SimpleFrameParser(Function<ByteBuf, I> decoder, BiConsumer<O, ByteBuf> encoder) {
+        this(FrameDecoder.single(decoder), encoder);
+    }
+    
+    public SimpleFrameParser(FrameDecoder<I> decoder, Function<O, String> serializer) {
+        this(decoder, textEncoder(serializer));
+    }
+    
+    public SimpleFrameParser(FrameDecoder<I> decoder, BiConsumer<O, ByteBuf> encoder) {
+        this.decoder = decoder;
+        this.encoder = encoder;
+    }
+    
+    private static <I> Function<ByteBuf, I> textDecoder(Function<String, I> deserializer) {
+        return buf -> deserializer.apply(buf.toString(CharsetUtil.UTF_8));
+    }
+    
+    private static <O> BiConsumer<O, ByteBuf> textEncoder(Function<O, String> serializer) {
+        return (o, buf) -> ByteBufUtil.writeUtf8(buf, serializer.apply(o));
+    }
+    
+    private static <O> BiConsumer<O, ByteBuf> jsonEncoder(ObjectMapper mapper) {
+        return (o, buf) -> {
             try {
-                return mapper.writeValueAsString(t);
+                mapper.writeValue((OutputStream) new ByteBufOutputStream(buf), o);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-        });
+        };
+    }
+    
+    private WebSocketFrame encode(ByteBufAllocator alloc, O payload) {
+        ByteBuf buf = alloc.buffer();
+        try {
+            encoder.accept(payload, buf);
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+        return new TextWebSocketFrame(buf);
     }
     
     @Override
@@ -105,22 +164,23 @@ public class SimpleFrameParser<I, O> implements IFrameParser<I, O> {
         in.withConnection(connection -> connection.addHandlerLast("client.last.closeHandler", new CloseHandlerAdapter(reason)));
     
         Mono<Void> outSub = out//.options(NettyPipeline.SendOptions::flushOnEach)
-            .sendObject(outboundExchange.log(log.getName() + ".out").map(serializer::apply).map(TextWebSocketFrame::new), $ -> true)
+            .sendObject(outboundExchange.doOnEach(Diagnostics.logSignals(log.getName() + ".out")).map(o -> encode(out.alloc(), o)), $ -> true)
             .then()
             .doOnError(t -> log.debug("Sender encountered an error", t))
             .doOnSuccess(v -> log.debug("Sender succeeded"))
             .doOnCancel(() -> log.debug("Sender cancelled"))
             .doOnTerminate(() -> log.debug("Sender terminated"));
     
-        Mono<Void> inSub = in.receiveFrames()
-            .map(WebSocketFrame::content)
-            .map(buf -> {
-                byte[] bytes = new byte[buf.readableBytes()];
-                buf.readBytes(bytes);
-                return new String(bytes);
+        // Frames are released by reactor-netty once they have been passed downstream, so they are decoded synchronously
+        Mono<Void> inSub = in.aggregateFrames(MAX_FRAME_LENGTH)
+            .receiveFrames()
+            .filter(frame -> frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame)
+            .concatMapIterable(frame -> {
+                List<I> decoded = new ArrayList<>(1);
+                decoder.decode(frame.content(), decoded::add);
+                return decoded;
             })
-            .map(deserializer::apply)
-            .log(log.getName() + ".in")
+            .doOnEach(Diagnostics.logSignals(log.getName() + ".in"))
             .doOnNext(inboundExchange::onNext)
             .doOnError(t -> log.error("Exception receiving frame", t))
             .doOnComplete(() -> log.debug("Receiver completed"))
@@ -1,25 +1,72 @@
 package com.tterrag.chatmux.websocket;
 
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
 import com.tterrag.chatmux.api.websocket.IFrameParser;
 import com.tterrag.chatmux.api.websocket.WebSocketClient;
+import com.tterrag.chatmux.util.Diagnostics;
+import com.tterrag.chatmux.util.metrics.Counter;
+import com.tterrag.chatmux.util.metrics.Histogram;
+import com.tterrag.chatmux.util.metrics.Metrics;
 
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.EmitterProcessor;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.FluxSink;
 import reactor.core.publisher.Mono;
+import reactor.netty.Connection;
 import reactor.netty.http.client.HttpClient;
 import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
 
 /**
  * Parts of this class adapted from <a href="https://github.com/Discord4J/Discord4J">Discord4J</a>, licensed under
  * LGPLv3.
+ * <p>
+ * Outbound frames sent while there is no connection are buffered, up to {@value #MAX_BUFFERED} of them, and sent once
+ * a connection is established. See {@link #connect(String, Supplier, SessionReplay)} for staying connected.
  */
-@RequiredArgsConstructor
 @Slf4j
 public class SimpleWebSocketClient<I, O> implements WebSocketClient<I, O> {
-    
+
+    private static final Counter CONNECTIONS = Metrics.counter("chatmux_websocket_connections_total", "Websocket connection attempts", "host");
+    private static final Counter DISCONNECTS = Metrics.counter("chatmux_websocket_disconnects_total", "Websocket connections which ended, with or without an error", "host");
+    private static final Counter RECONNECTS = Metrics.counter("chatmux_websocket_reconnects_total", "Websocket connections which were lost and reconnected", "host");
+    private static final Counter DROPPED = Metrics.counter("chatmux_websocket_dropped_frames_total", "Outbound websocket frames dropped because too many were buffered while disconnected", "host");
+    private static final Histogram DOWNTIME = Metrics.histogram("chatmux_websocket_downtime_seconds", "Time from losing a websocket connection until it was back", "host");
+
+    private static final int MAX_BUFFERED = 1000;
+
+    private static final Duration MIN_BACKOFF = Duration.ofSeconds(1);
+    private static final Duration MAX_BACKOFF = Duration.ofMinutes(1);
+    /**
+     * How long a connection has to last for the backoff to start over.
+     */
+    private static final Duration STABLE = Duration.ofMinutes(1);
+
+    /**
+     * Restores the state of a session on a new connection.
+     */
+    @FunctionalInterface
+    public interface SessionReplay<O> {
+
+        /**
+         * @param send
+         *            Sends a frame, ahead of any which were buffered while disconnected
+         * @param reconnect
+         *            False for the first connection
+         */
+        void replay(Consumer<O> send, boolean reconnect);
+    }
+
     @NonNull
     private final EmitterProcessor<I> receiver = EmitterProcessor.create(false);
     @NonNull
@@ -31,9 +78,72 @@ public class SimpleWebSocketClient<I, O> implements WebSocketClient<I, O> {
     private final FluxSink<I> receiverSink = receiver.sink(FluxSink.OverflowStrategy.LATEST);
     @NonNull
     private final FluxSink<O> senderSink = sender.sink(FluxSink.OverflowStrategy.LATEST);
-        
+
+    // Frames sent while disconnected, guarded by itself along with the current handler
+    private final Deque<O> buffered = new ArrayDeque<>();
+    @Nullable
+    private IFrameParser<I, O> current;
+    @Nullable
+    private Connection connection;
+    // Set as soon as connect is called, so that frames dropped before the first connection are labelled too
+    @Nullable
+    private String host;
+    private long disconnectedAt;
+
+    public SimpleWebSocketClient() {
+        sender.subscribe(this::dispatch);
+    }
+
     public Mono<Void> connect(String url, IFrameParser<I, O> handler) {
+        return connect(url, host(url), handler, null, false);
+    }
+
+    /**
+     * Connects, and reconnects whenever the connection is lost, until the returned {@link Mono} is cancelled.
+     * Reconnecting backs off exponentially from a second up to a minute, with jitter.
+     *
+     * @param handlers
+     *            Creates the frame parser for each connection
+     * @param replay
+     *            Called on each connection before the buffered frames are sent, for instance to log in again
+     */
+    public Mono<Void> connect(String url, Supplier<? extends IFrameParser<I, O>> handlers, @Nullable SessionReplay<O> replay) {
+        String host = host(url);
+        AtomicBoolean connected = new AtomicBoolean();
+        AtomicInteger failures = new AtomicInteger();
         return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return connect(url, host, handlers.get(), replay, connected.getAndSet(true))
+                    .onErrorResume(t -> Mono.empty())
+                    .then(Mono.defer(() -> {
+                        if (System.nanoTime() - start >= STABLE.toNanos()) {
+                            failures.set(0);
+                        }
+                        Duration delay = backoff(failures.getAndIncrement());
+                        RECONNECTS.labels(host).inc();
+                        log.warn("Websocket connection to {} lost, reconnecting in {}ms", host, delay.toMillis());
+                        return Mono.delay(delay).then();
+                    }));
+        }).repeat().then();
+    }
+
+    private String host(String url) {
+        String host = String.valueOf(URI.create(url).getHost());
+        synchronized (buffered) {
+            this.host = host;
+        }
+        return host;
+    }
+
+    private static Duration backoff(int failures) {
+        long max = Math.min(MIN_BACKOFF.toMillis() << Math.min(failures, 16), MAX_BACKOFF.toMillis());
+        // Anywhere from half to all of the delay, so that many connections lost at once do not all come back at once
+        return Duration.ofMillis(max / 2 + ThreadLocalRandom.current().nextLong(max / 2 + 1));
+    }
+
+    private Mono<Void> connect(String url, String host, IFrameParser<I, O> handler, @Nullable SessionReplay<O> replay, boolean reconnect) {
+        return Mono.defer(() -> {
+            CONNECTIONS.labels(host).inc();
             // Subscribe each inbound GatewayPayload to the receiver sink
             Flux<I> inboundSub = handler.inbound()
                     .doOnError(t -> log.debug("Inbound encountered an error", t))
@@ -42,36 +152,101 @@ public class SimpleWebSocketClient<I, O> implements WebSocketClient<I, O> {
                     .doOnNext(receiverSink::next);
 
             // Subscribe the receiver to process and transform the inbound payloads into Dispatch events
-            Flux<I> receiverSub = receiver.log(log.getName()).doOnError(t -> log.error("Exception receiving websocket data", t));
-
-            // Subscribe the handler's outbound exchange with our outgoing signals
-            // routing error and completion signals to close the gateway
-            Flux<O> senderSub = sender.log(log.getName())
-                    .doOnNext(handler.outbound()::onNext)
-                    .doOnError(t -> handler.close())
-                    .doOnComplete(handler::close);
+            Flux<I> receiverSub = receiver.doOnEach(Diagnostics.logSignals(log.getName())).doOnError(t -> log.error("Exception receiving websocket data", t));
 
             Mono<Void> ws = HttpClient.create()
                     .observe((connection, newState) -> log.debug("{} {}", newState, connection))
-                    .wiretap(true)
+                    .wiretap(Diagnostics.isVerbose())
                     .websocket()
                     .uri(url)
-                    .handle(handler::handle)
+                    .handle((in, out) -> {
+                        in.withConnection(connection -> attach(host, connection, handler, replay, reconnect));
+                        return handler.handle(in, out);
+                    })
                     .doOnError(t -> log.error("Exception handling websocket data", t))
                     .doOnTerminate(() -> {
                         log.debug("Terminating websocket client, disposing subscriptions");
+                        DISCONNECTS.labels(host).inc();
                     })
+                    .doFinally($ -> detach(handler))
                     .then();
-            
-            return Mono.when(inboundSub, receiverSub, senderSub, ws);
+
+            // The connection is over when the websocket is, even if the processors are not done
+            return Mono.firstWithSignal(ws, Mono.when(inboundSub, receiverSub));
         });
     }
 
+    private void attach(String host, Connection connection, IFrameParser<I, O> handler, @Nullable SessionReplay<O> replay, boolean reconnect) {
+        // Nothing else writes to the handler until it is current
+        if (replay != null) {
+            replay.replay(handler.outbound()::onNext, reconnect);
+        }
+        synchronized (buffered) {
+            O frame;
+            while ((frame = buffered.poll()) != null) {
+                handler.outbound().onNext(frame);
+            }
+            current = handler;
+            this.connection = connection;
+            // Only once there has been a connection to lose
+            if (reconnect && disconnectedAt != 0) {
+                DOWNTIME.labels(host).observeNanos(System.nanoTime() - disconnectedAt);
+            }
+        }
+    }
+
+    private void detach(IFrameParser<I, O> handler) {
+        synchronized (buffered) {
+            if (current == handler) {
+                current = null;
+                connection = null;
+                disconnectedAt = System.nanoTime();
+            }
+        }
+    }
+
+    private void dispatch(O frame) {
+        synchronized (buffered) {
+            IFrameParser<I, O> current = this.current;
+            if (current != null) {
+                current.outbound().onNext(frame);
+            } else if (buffered.size() < MAX_BUFFERED) {
+                buffered.add(frame);
+            } else {
+                DROPPED.labels(String.valueOf(host)).inc();
+            }
+        }
+    }
+
+    /**
+     * Drops the current connection, for instance because it stopped responding. If this client was connected through
+     * {@link #connect(String, Supplier, SessionReplay)}, it then reconnects as if the connection was lost.
+     */
+    public void reconnect() {
+        Connection connection;
+        synchronized (buffered) {
+            connection = this.connection;
+        }
+        if (connection != null) {
+            // Not a close handshake, the other end may never answer it
+            connection.channel().close();
+        }
+    }
+
+    /**
+     * @return True if there is a connection which frames are sent over right away
+     */
+    public boolean isConnected() {
+        synchronized (buffered) {
+            return current != null;
+        }
+    }
+
     @Override
     public Flux<I> inbound() {
         return receiver;
     }
-    
+
     @Override
     public FluxSink<O> outbound() {
         return senderSink;
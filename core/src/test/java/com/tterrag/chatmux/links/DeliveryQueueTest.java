@@ -0,0 +1,195 @@
+package com.tterrag.chatmux.links;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import com.tterrag.chatmux.api.bridge.ChatMessage;
+import com.tterrag.chatmux.api.bridge.ChatService;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+public class DeliveryQueueTest {
+
+    private static class Message implements ChatMessage<Message> {
+
+        private final String user, content;
+
+        Message(String user, String content) {
+            this.user = user;
+            this.content = content;
+        }
+
+        @Override
+        public ChatService<Message> getService() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getChannel() {
+            return "channel";
+        }
+
+        @Override
+        public String getChannelId() {
+            return "channel";
+        }
+
+        @Override
+        public String getUser() {
+            return user;
+        }
+
+        @Override
+        public String getUserId() {
+            return user;
+        }
+
+        @Override
+        public String getContent() {
+            return content;
+        }
+
+        @Override
+        public String getAvatar() {
+            return "";
+        }
+
+        @Override
+        public Mono<Void> delete() {
+            return Mono.empty();
+        }
+
+        @Override
+        public Mono<Void> kick() {
+            return Mono.empty();
+        }
+
+        @Override
+        public Mono<Void> ban() {
+            return Mono.empty();
+        }
+    }
+
+    private final List<String> sent = new ArrayList<>();
+    // Holds up every delivery until released, so the queue fills up behind the first message
+    private final Sinks.Empty<Void> release = Sinks.empty();
+
+    private DeliveryQueue<Message> queue(int capacity, OverflowPolicy overflow, long timeout) {
+        return new DeliveryQueue<>("test", new DeliveryOptions(capacity, overflow, timeout), m -> {
+            sent.add(m.getContent());
+            return release.asMono();
+        });
+    }
+
+    private static void offer(DeliveryQueue<Message> queue, String... contents) {
+        for (String content : contents) {
+            queue.offer(new Message("user", content)).block(Duration.ZERO);
+        }
+    }
+
+    private void releaseAll() {
+        release.tryEmitEmpty().orThrow();
+    }
+
+    @Test
+    public void dropOldest() {
+        DeliveryQueue<Message> queue = queue(2, OverflowPolicy.DROP_OLDEST, 1000);
+        offer(queue, "a", "b", "c", "d");
+        assertEquals(1, queue.getDropped());
+        releaseAll();
+        assertEquals(Arrays.asList("a", "c", "d"), sent);
+        assertEquals(3, queue.getDelivered());
+    }
+
+    @Test
+    public void dropNewest() {
+        DeliveryQueue<Message> queue = queue(2, OverflowPolicy.DROP_NEWEST, 1000);
+        offer(queue, "a", "b", "c", "d");
+        assertEquals(1, queue.getDropped());
+        releaseAll();
+        assertEquals(Arrays.asList("a", "b", "c"), sent);
+    }
+
+    @Test
+    public void coalesce() {
+        DeliveryQueue<Message> queue = queue(2, OverflowPolicy.COALESCE, 1000);
+        offer(queue, "a", "b", "c", "c");
+        assertEquals(1, queue.getCoalesced());
+        assertEquals(0, queue.getDropped());
+        // Nothing to merge with, so the oldest goes
+        offer(queue, "d");
+        assertEquals(1, queue.getDropped());
+        releaseAll();
+        assertEquals(Arrays.asList("a", "c", "d"), sent);
+    }
+
+    @Test
+    public void coalesceOnlySameUser() {
+        DeliveryQueue<Message> queue = queue(1, OverflowPolicy.COALESCE, 1000);
+        offer(queue, "a", "b");
+        queue.offer(new Message("other", "b")).block(Duration.ZERO);
+        assertEquals(0, queue.getCoalesced());
+        assertEquals(1, queue.getDropped());
+    }
+
+    @Test
+    public void blockWaitsForRoom() {
+        DeliveryQueue<Message> queue = queue(1, OverflowPolicy.BLOCK, 10_000);
+        offer(queue, "a", "b");
+        AtomicBoolean c = new AtomicBoolean(), d = new AtomicBoolean();
+        queue.offer(new Message("user", "c")).subscribe(null, null, () -> c.set(true));
+        queue.offer(new Message("user", "d")).subscribe(null, null, () -> d.set(true));
+        assertFalse(c.get());
+        assertFalse(d.get());
+        releaseAll();
+        assertTrue(c.get());
+        assertTrue(d.get());
+        assertEquals(Arrays.asList("a", "b", "c", "d"), sent);
+        assertEquals(0, queue.getDropped());
+    }
+
+    @Test
+    public void blockTimesOut() {
+        DeliveryQueue<Message> queue = queue(1, OverflowPolicy.BLOCK, 50);
+        offer(queue, "a", "b");
+        queue.offer(new Message("user", "c")).block(Duration.ofSeconds(5));
+        assertEquals(1, queue.getDropped());
+        releaseAll();
+        assertEquals(Arrays.asList("a", "b"), sent);
+    }
+
+    @Test
+    public void blockCancelDrops() {
+        DeliveryQueue<Message> queue = queue(1, OverflowPolicy.BLOCK, 10_000);
+        offer(queue, "a", "b");
+        Disposable waiting = queue.offer(new Message("user", "c")).subscribe();
+        waiting.dispose();
+        assertEquals(1, queue.getDropped());
+        releaseAll();
+        assertEquals(Arrays.asList("a", "b"), sent);
+    }
+
+    @Test
+    public void closeReleasesWaiters() {
+        DeliveryQueue<Message> queue = queue(1, OverflowPolicy.BLOCK, 10_000);
+        offer(queue, "a", "b");
+        AtomicBoolean c = new AtomicBoolean();
+        queue.offer(new Message("user", "c")).subscribe(null, null, () -> c.set(true));
+        queue.close();
+        assertTrue(c.get());
+        releaseAll();
+        assertEquals(Arrays.asList("a"), sent);
+        assertEquals(0, queue.getDepth());
+    }
+}
@@ -0,0 +1,179 @@
+package com.tterrag.chatmux.links;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tterrag.chatmux.api.bridge.ChatService;
+import com.tterrag.chatmux.api.bridge.ChatSource;
+import com.tterrag.chatmux.api.config.ServiceConfig;
+import com.tterrag.chatmux.bridge.AbstractChatMessage;
+import com.tterrag.chatmux.bridge.AbstractChatService;
+import com.tterrag.chatmux.bridge.ChatChannelImpl;
+
+import reactor.core.publisher.Mono;
+
+public class LinkJournalTest {
+
+    private static final class TestMessage extends AbstractChatMessage<TestMessage> {
+
+        TestMessage(ChatService<TestMessage> service) {
+            super(service, "channel", "user", "content", null);
+        }
+
+        @Override
+        public Mono<Void> delete() {
+            return Mono.empty();
+        }
+
+        @Override
+        public Mono<Void> kick() {
+            return Mono.empty();
+        }
+
+        @Override
+        public Mono<Void> ban() {
+            return Mono.empty();
+        }
+    }
+
+    private static final class TestService extends AbstractChatService<TestMessage, ChatSource<TestMessage>> {
+
+        TestService() {
+            super("journal-test");
+        }
+
+        @Override
+        protected ChatSource<TestMessage> createSource() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ServiceConfig<?> getConfig() {
+            return null;
+        }
+    }
+
+    private static final TestService SERVICE = new TestService();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    private Path snapshot, journal;
+
+    @BeforeEach
+    public void files() {
+        snapshot = dir.resolve("links.json");
+        journal = dir.resolve("links.journal");
+    }
+
+    private static SimpleLink link(String from, String to) {
+        return new SimpleLink(new ChatChannelImpl<>(from, SERVICE), new ChatChannelImpl<>(to, SERVICE), false, DeliveryOptions.DEFAULT);
+    }
+
+    private String record(long seq, LinkJournal.Op op, SimpleLink link) throws IOException {
+        return "{\"seq\":" + seq + ",\"op\":\"" + op + "\",\"link\":" + mapper.writeValueAsString(link) + "}\n";
+    }
+
+    private void write(Path file, String... contents) throws IOException {
+        Files.write(file, String.join("", contents).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<SimpleLink> load() throws IOException {
+        return new LinkJournal(snapshot, journal).load();
+    }
+
+    /**
+     * Loading with a non-empty journal compacts it in the background, wait for that to finish before the files are
+     * checked or deleted.
+     */
+    private void awaitCompaction() throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Files.size(journal) > 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "Journal was not compacted");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void replaysJournalOverSnapshot() throws Exception {
+        SimpleLink a = link("a", "x"), b = link("b", "x"), c = link("c", "x"), d = link("d", "x");
+        write(snapshot, "{\"seq\":2,\"links\":[" + mapper.writeValueAsString(a) + "," + mapper.writeValueAsString(b) + "]}");
+        // Seq 2 is already in the snapshot, as if the process died before the journal was truncated
+        write(journal, record(2, LinkJournal.Op.ADD, d), record(3, LinkJournal.Op.ADD, c), record(4, LinkJournal.Op.REMOVE, a));
+        assertEquals(Arrays.asList(b, c), load());
+
+        awaitCompaction();
+        assertEquals(Arrays.asList(b, c), load());
+    }
+
+    @Test
+    public void discardsTornRecord() throws Exception {
+        SimpleLink a = link("a", "x");
+        String torn = record(2, LinkJournal.Op.ADD, link("b", "x"));
+        write(journal, record(1, LinkJournal.Op.ADD, a), torn.substring(0, torn.length() / 2));
+        assertEquals(Collections.singletonList(a), load());
+
+        awaitCompaction();
+        assertEquals(Collections.singletonList(a), load());
+    }
+
+    @Test
+    public void skipsDuplicateSeqs() throws Exception {
+        SimpleLink a = link("a", "x"), b = link("b", "x");
+        // A batch which failed partway and could not be rolled back, then was written again in full
+        write(journal, record(1, LinkJournal.Op.ADD, a), record(1, LinkJournal.Op.ADD, a), record(2, LinkJournal.Op.ADD, b));
+        assertEquals(Arrays.asList(a, b), load());
+        awaitCompaction();
+    }
+
+    @Test
+    public void loadsLegacySnapshot() throws Exception {
+        SimpleLink a = link("a", "x"), b = link("b", "x");
+        String legacy = "[" + mapper.writeValueAsString(a) + "," + mapper.writeValueAsString(b) + "]";
+        write(snapshot, legacy);
+        assertEquals(Arrays.asList(a, b), load());
+
+        // The first compaction replaces the list, the original is kept for older versions
+        SimpleLink c = link("c", "x");
+        write(journal, record(1, LinkJournal.Op.ADD, c));
+        assertEquals(Arrays.asList(a, b, c), load());
+        awaitCompaction();
+        assertTrue(mapper.readTree(snapshot.toFile()).isObject());
+        assertArrayEquals(legacy.getBytes(StandardCharsets.UTF_8), Files.readAllBytes(dir.resolve("links.json.legacy")));
+        assertEquals(Arrays.asList(a, b, c), load());
+    }
+
+    @Test
+    public void persistsAppends() throws Exception {
+        SimpleLink a = link("a", "x"), b = link("b", "x");
+        LinkJournal links = new LinkJournal(snapshot, journal);
+        links.load();
+        links.append(LinkJournal.Op.ADD, a);
+        links.append(LinkJournal.Op.ADD, b);
+        links.append(LinkJournal.Op.REMOVE, a);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!Files.exists(journal) || Files.readAllLines(journal).size() < 3) {
+            assertTrue(System.currentTimeMillis() < deadline, "Journal was not written");
+            Thread.sleep(10);
+        }
+        assertEquals(Collections.singletonList(b), load());
+        awaitCompaction();
+    }
+}
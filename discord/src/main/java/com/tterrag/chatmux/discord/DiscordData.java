@@ -4,8 +4,11 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.electronwill.nightconfig.core.conversion.Path;
+import com.electronwill.nightconfig.core.conversion.PreserveNotNull;
 import com.tterrag.chatmux.api.config.ServiceData;
 
+import discord4j.rest.route.Routes;
+
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.ToString;
@@ -22,4 +25,11 @@ public class DiscordData implements ServiceData {
     private List<Long> moderationChannels = new ArrayList<>();
     
     private List<Long> admins = new ArrayList<>();
+    
+    /**
+     * The REST API to use, for both the gateway client and webhooks. There is no need to change this, except to test
+     * against a local stand-in.
+     */
+    @PreserveNotNull
+    private String apiUrl = Routes.BASE_URL;
 }
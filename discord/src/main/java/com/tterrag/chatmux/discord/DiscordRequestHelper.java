@@ -1,14 +1,15 @@
 package com.tterrag.chatmux.discord;
 
-import java.io.IOException;
-import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
-import com.google.common.io.ByteStreams;
+import com.tterrag.chatmux.util.http.HttpStatusException;
 import com.tterrag.chatmux.util.http.RequestHelper;
 
 import discord4j.common.util.Snowflake;
@@ -18,24 +19,28 @@ import discord4j.core.object.entity.Webhook;
 import discord4j.core.object.entity.channel.TextChannel;
 import discord4j.discordjson.json.MessageData;
 import discord4j.discordjson.possible.PossibleModule;
-import discord4j.rest.route.Routes;
 import discord4j.rest.util.Image;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Mono;
 import reactor.util.annotation.NonNull;
 
+@Slf4j
 public class DiscordRequestHelper extends RequestHelper {
     
     private final GatewayDiscordClient client;
     private final String token;
     
-    public DiscordRequestHelper(GatewayDiscordClient client, String token) {
+    private final Map<Snowflake, Mono<Webhook>> webhooks = new ConcurrentHashMap<>();
+    
+    public DiscordRequestHelper(GatewayDiscordClient client, String baseUrl, String token) {
         super(new ObjectMapper()
                 .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
                 .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
                 .registerModules(new PossibleModule(), new Jdk8Module()),
-                Routes.BASE_URL);
+                baseUrl);
         
         this.client = client;
         this.token = token;
@@ -49,29 +54,62 @@ public class DiscordRequestHelper extends RequestHelper {
     }
 
     /**
-     * Creates a new webhook, or returns an existing one by the same name.
+     * Creates a new webhook, or returns an existing one by the same name. The result is cached per channel until it is
+     * {@link #invalidateWebhook(Snowflake) invalidated}.
      * 
      * @param channelId
      *            The channel ID to find the webhook in
      * @param name
      *            The name of the webhook
      * @param avatar
-     *            An {@link InputStream} pointing to a .png resource
-     * @return A {@link WebhookObject} representing the created/found webhook.
+     *            The bytes of a .png image to use as the avatar, if the webhook needs to be created
+     * @return A {@link Webhook} representing the created/found webhook.
      */
-    public Mono<Webhook> getWebhook(Snowflake channelId, String name, InputStream avatar) {
+    public Mono<Webhook> getWebhook(Snowflake channelId, String name, byte[] avatar) {
+        return webhooks.computeIfAbsent(channelId, id -> {
+            // Only evict this lookup, a newer one may have replaced it by the time it fails
+            AtomicReference<Mono<Webhook>> self = new AtomicReference<>();
+            Mono<Webhook> ret = findWebhook(id, name, avatar)
+                    .doOnError(t -> webhooks.remove(id, self.get()))
+                    .switchIfEmpty(Mono.fromRunnable(() -> webhooks.remove(id, self.get())))
+                    .cache();
+            self.set(ret);
+            return ret;
+        });
+    }
+    
+    private Mono<Webhook> findWebhook(Snowflake channelId, String name, byte[] avatar) {
         final Mono<TextChannel> channel = client.getChannelById(channelId).ofType(TextChannel.class).cache();
         return channel.flatMapMany(c -> c.getWebhooks())
                 .filter(existing -> existing.getName().filter(s -> s.equals(name)).isPresent())
                 .singleOrEmpty() // If there's more than one webhook with the same name, we have big problems...
-                .switchIfEmpty(Mono.defer(() -> {
-                    try (InputStream in = avatar) {
-                        byte[] image = ByteStreams.toByteArray(in);
-                        return channel.flatMap(c -> c.createWebhook(spec -> spec.setName(name).setAvatar(Image.ofRaw(image, Image.Format.PNG))));
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                }));
+                .switchIfEmpty(channel.flatMap(c -> c.createWebhook(spec -> spec.setName(name).setAvatar(Image.ofRaw(avatar, Image.Format.PNG)))));
+    }
+    
+    /**
+     * Evicts the cached webhook for a channel, so that the next call to {@link #getWebhook(Snowflake, String, byte[])}
+     * finds or creates it again.
+     */
+    public void invalidateWebhook(Snowflake channelId) {
+        webhooks.remove(channelId);
+    }
+    
+    /**
+     * Executes the webhook for a channel, finding or creating it if necessary. If the cached webhook no longer exists,
+     * it is evicted and the message is retried once with a fresh one.
+     */
+    public Mono<Message> executeWebhook(Snowflake channelId, String name, byte[] avatar, String payload) {
+        return getWebhook(channelId, name, avatar)
+                .flatMap(wh -> executeWebhook(wh, payload))
+                .onErrorResume(DiscordRequestHelper::isUnknownWebhook, t -> {
+                    log.info("Webhook for channel {} is gone, recreating", channelId.asString());
+                    invalidateWebhook(channelId);
+                    return getWebhook(channelId, name, avatar).flatMap(wh -> executeWebhook(wh, payload));
+                });
+    }
+    
+    private static boolean isUnknownWebhook(Throwable t) {
+        return t instanceof HttpStatusException && ((HttpStatusException) t).getStatus() == HttpResponseStatus.NOT_FOUND.code();
     }
     
     public Mono<Message> executeWebhook(Webhook webhook, String payload) {
@@ -49,7 +49,7 @@ public class DiscordService extends AbstractChatService<DiscordMessage, DiscordS
     
     @Override
     protected DiscordSource createSource() {
-        return new DiscordSource(getData().getToken());
+        return new DiscordSource(getData().getToken(), getData().getApiUrl());
     }
     
     @Override
@@ -1,21 +1,14 @@
 package com.tterrag.chatmux.discord;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.time.Duration;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
-import java.util.function.BiConsumer;
-import java.util.function.BiPredicate;
-import java.util.function.Function;
-import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.google.common.io.ByteStreams;
 import com.tterrag.chatmux.Main;
 import com.tterrag.chatmux.api.bridge.ChatMessage;
 import com.tterrag.chatmux.api.bridge.ChatSource;
@@ -28,14 +21,15 @@ import discord4j.core.DiscordClientBuilder;
 import discord4j.core.GatewayDiscordClient;
 import discord4j.core.event.domain.message.MessageCreateEvent;
 import discord4j.core.event.domain.message.ReactionAddEvent;
-import discord4j.core.object.entity.Guild;
 import discord4j.core.object.entity.Message;
 import discord4j.core.object.entity.User;
 import discord4j.core.object.entity.channel.TextChannel;
 import discord4j.core.object.reaction.ReactionEmoji;
 import discord4j.gateway.intent.Intent;
 import discord4j.gateway.intent.IntentSet;
+import discord4j.rest.request.RouterOptions;
 import emoji4j.EmojiUtils;
+import lombok.AccessLevel;
 import lombok.Getter;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -47,9 +41,11 @@ public class DiscordSource implements ChatSource<DiscordMessage> {
     @NonNull
     private static final String ADMIN_EMOTE = "\u274C";
     
-    private static final Pattern MENTION = Pattern.compile("(?:^|[^\\\\])@(\\S+)");
-    private static final Pattern CHANNEL = Pattern.compile("#(\\S+)");
-    private static final Pattern EMOTE = Pattern.compile(":(\\S+):");
+    private static final String WEBHOOK_NAME = "ChatMux";
+    
+    static final Pattern MENTION = Pattern.compile("(?<!\\\\)@(\\S+)");
+    static final Pattern CHANNEL = Pattern.compile("#(\\S+)");
+    static final Pattern EMOTE = Pattern.compile(":(\\S+):");
     
     @NonNull
     @Getter
@@ -64,11 +60,29 @@ public class DiscordSource implements ChatSource<DiscordMessage> {
     @NonNull
     private final Flux<MessageCreateEvent> messageSource;
     
-    DiscordSource(String token) {
-        this.client = DiscordClientBuilder.create(token).build().gateway()
-                .setEnabledIntents(IntentSet.of(Intent.GUILDS, Intent.GUILD_MESSAGES, Intent.GUILD_MESSAGE_REACTIONS))
+    @NonNull
+    private final GuildNameIndex names;
+    
+    @NonNull
+    @Getter(AccessLevel.PACKAGE)
+    private final MentionNames mentions;
+    
+    /**
+     * The avatar used when creating webhooks, loaded once up front.
+     */
+    private final byte[] avatar = loadAvatar();
+    
+    DiscordSource(String token, String apiUrl) {
+        this.client = DiscordClientBuilder.create(token)
+                .setExtraOptions(o -> new RouterOptions(o.getToken(), o.getReactorResources(), o.getExchangeStrategies(),
+                        o.getResponseTransformers(), o.getGlobalRateLimiter(), o.getRequestQueueFactory(), apiUrl))
+                .build()
+                .gateway()
+                .setEnabledIntents(IntentSet.of(Intent.GUILDS, Intent.GUILD_MEMBERS, Intent.GUILD_EMOJIS, Intent.GUILD_MESSAGES, Intent.GUILD_MESSAGE_REACTIONS))
                 .login().block(); // TODO AAAAA
-        this.helper = new DiscordRequestHelper(client, token);
+        this.helper = new DiscordRequestHelper(client, apiUrl, token);
+        this.names = new GuildNameIndex(client);
+        this.mentions = new MentionNames(client);
 
         this.messageSource = client.getEventDispatcher()
             .on(MessageCreateEvent.class)
@@ -80,6 +94,17 @@ public class DiscordSource implements ChatSource<DiscordMessage> {
             .share();
     }
 
+    private static byte[] loadAvatar() {
+        try (InputStream in = Main.class.getResourceAsStream("/logo.png")) {
+            if (in == null) {
+                throw new RuntimeException("Resource not found: logo.png");
+            }
+            return ByteStreams.toByteArray(in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public DiscordService getType() {
         return DiscordService.getInstance();
@@ -91,16 +116,11 @@ public class DiscordSource implements ChatSource<DiscordMessage> {
         return messageSource
                 .filter(e -> e.getMessage().getChannelId().asString().equals(channel))
                 .flatMap(e -> e.getMessage().getChannel().ofType(TextChannel.class).map(c -> Tuples.of(e, c)))
-                .flatMap(t -> DiscordMessage.create(t.getT1().getMessage()));
+                .flatMap(t -> DiscordMessage.create(t.getT1().getMessage(), mentions));
     }
     
     @Override
     public Mono<DiscordMessage> send(String channelName, ChatMessage<?> m, boolean raw) {
-        InputStream in = Main.class.getResourceAsStream("/logo.png");
-        if (in == null) {
-            throw new RuntimeException("Resource not found: logo.png");
-        }
-        
         Snowflake channel = Snowflake.of(channelName);
         String usercheck = m.getUser() + " (" + m.getService() + "/" + m.getChannel() + ")";
         if (usercheck.length() > 32) {
@@ -108,8 +128,8 @@ public class DiscordSource implements ChatSource<DiscordMessage> {
         }
         usercheck = usercheck.replaceAll("(?i)discord", "DIS");
         final String username = usercheck;
-        return helper.getWebhook(channel, "ChatMux", in)
-                    .flatMap(wh -> discordify(channel, m).flatMap(msg -> helper.executeWebhook(wh, new WebhookMessage(msg, username, m.getAvatar()).toString()))).map(r -> Tuples.of(m, r))
+        return discordify(channel, m)
+                    .flatMap(msg -> helper.executeWebhook(channel, WEBHOOK_NAME, avatar, new WebhookMessage(msg, username, m.getAvatar()).toString())).map(r -> Tuples.of(m, r))
                     .filter(t -> (!Main.cfg.getModerators().isEmpty() || !Main.cfg.getAdmins().isEmpty()) && DiscordService.getInstance().getData().getModerationChannels().contains(t.getT2().getChannelId().asLong()))
                     .flatMap(t -> t.getT2().addReaction(ReactionEmoji.unicode(ADMIN_EMOTE)).thenReturn(t))
                     .flatMap(t -> client.getEventDispatcher().on(ReactionAddEvent.class)
@@ -120,7 +140,7 @@ public class DiscordSource implements ChatSource<DiscordMessage> {
                             .next()
                             .flatMap(mra -> mra.getMessage().flatMap(Message::delete).and(t.getT1().delete()).thenReturn(t.getT2()))
                             .switchIfEmpty(Mono.justOrEmpty(client.getSelfId()).flatMap(u -> t.getT2().removeReaction(ReactionEmoji.unicode(ADMIN_EMOTE), u)).thenReturn(t.getT2())))
-                    .flatMap(msg -> DiscordMessage.create(msg));
+                    .flatMap(msg -> DiscordMessage.create(msg, mentions));
     }
 
     private Mono<String> discordify(Snowflake channel, ChatMessage<?> msg) {
@@ -129,64 +149,29 @@ public class DiscordSource implements ChatSource<DiscordMessage> {
         }
         return client.getChannelById(channel)
                 .ofType(TextChannel.class)
-                .flatMap(c -> c.getGuild())
-                .flatMap(g -> parseMentions(msg.getContent(), g)
-                        .flatMap(s -> parseChannels(s, g))
-                        .flatMap(s -> parseEmotes(s, g)));
-    }
-    
-    private Mono<String> parseMentions(String content, Guild guild) {
-        return parse(MENTION, 1, guild::getMembers,
-                (found, m) -> found.contains(m.getDisplayName().toLowerCase(Locale.ROOT)) || found.contains(m.getUsername().toLowerCase(Locale.ROOT)),
-                (map, m) -> {
-                    map.put(m.getDisplayName().toLowerCase(Locale.ROOT), m);
-                    map.put(m.getUsername().toLowerCase(Locale.ROOT), m);
-                },
-                m -> "<@" + m.getId().asString() + ">",
-                content, guild);
-    }
-    
-    private Mono<String> parseChannels(String content, Guild guild) {
-        return parse(CHANNEL, 1, guild::getChannels,
-                (found, c) -> found.contains(c.getName().toLowerCase(Locale.ROOT)),
-                (map, c) -> map.put(c.getName().toLowerCase(Locale.ROOT), c),
-                c -> "<#" + c.getId().asString() + ">",
-                content, guild);
-    }
-    
-    private Mono<String> parseEmotes(String content, Guild guild) {
-        return parse(EMOTE, 1, guild::getEmojis,
-                (found, e) -> found.contains(e.getName().toLowerCase(Locale.ROOT)),
-                (map, e) -> map.put(e.getName().toLowerCase(Locale.ROOT), e),
-                e -> (e.isAnimated() ? "<a:" : "<:") + e.getName() + ":" + e.getId().asString() + ">",
-                content, guild)
-                .map(EmojiUtils::emojify);
+                .flatMap(c -> names.get(c.getGuildId()))
+                .map(g -> EmojiUtils.emojify(replace(EMOTE, g.getEmojis(), replace(CHANNEL, g.getChannels(), replace(MENTION, g.getMembers(), msg.getContent())))));
     }
     
-    private <T> Mono<String> parse(Pattern pattern, int group, Supplier<Flux<T>> start, BiPredicate<Collection<String>, T> matches, BiConsumer<Map<String, T>, T> collector, Function<T, String> converter, String content, Guild guild) {
+    /**
+     * Replaces each match of the pattern whose first group is a known name with its mention. Unknown names are left as
+     * they are.
+     */
+    static String replace(Pattern pattern, GuildNameIndex.Names names, String content) {
         Matcher m = pattern.matcher(content);
-        Set<String> found = new HashSet<>();
-        while (m.find()) {
-            found.add(m.group(group).toLowerCase(Locale.ROOT));
-        }
-        if (found.isEmpty()) {
-            return Mono.just(content);
+        if (!m.find()) {
+            return content;
         }
-        return start.get()
-                .filter(member -> matches.test(found, member))
-                .collect(() -> new HashMap<String, T>(), collector)
-                .map(map -> {
-                   Matcher m2 = pattern.matcher(content);
-                   StringBuffer sb = new StringBuffer();
-                   while (m2.find()) {
-                       T val = map.get(m2.group(group).toLowerCase(Locale.ROOT));
-                       if (val != null) {
-                           m2.appendReplacement(sb, converter.apply(val));
-                       }
-                   }
-                   m2.appendTail(sb);
-                   return sb.toString();
-                });
+        StringBuilder sb = new StringBuilder(content.length());
+        int last = 0;
+        do {
+            String mention = names.get(m.group(1));
+            if (mention != null) {
+                sb.append(content, last, m.start()).append(mention);
+                last = m.end();
+            }
+        } while (m.find());
+        return sb.append(content, last, content.length()).toString();
     }
 
     @Override
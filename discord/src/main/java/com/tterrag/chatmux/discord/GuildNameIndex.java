@@ -0,0 +1,197 @@
+package com.tterrag.chatmux.discord;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import discord4j.common.util.Snowflake;
+import discord4j.core.GatewayDiscordClient;
+import discord4j.core.event.domain.channel.ChannelEvent;
+import discord4j.core.event.domain.channel.PinsUpdateEvent;
+import discord4j.core.event.domain.channel.TypingStartEvent;
+import discord4j.core.event.domain.guild.EmojisUpdateEvent;
+import discord4j.core.event.domain.guild.GuildDeleteEvent;
+import discord4j.core.event.domain.guild.MemberJoinEvent;
+import discord4j.core.event.domain.guild.MemberLeaveEvent;
+import discord4j.core.event.domain.guild.MemberUpdateEvent;
+import discord4j.core.object.entity.Guild;
+import discord4j.core.object.entity.GuildEmoji;
+import discord4j.core.object.entity.Member;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.Nullable;
+import reactor.util.function.Tuples;
+
+/**
+ * The member, channel and emoji names of each guild, for turning names in messages bound for Discord into mentions.
+ * <p>
+ * A guild is indexed the first time a message is sent into it, which fetches its member list once. After that the
+ * index is kept up to date from gateway events, so lookups never go through the member list again.
+ */
+@Slf4j
+class GuildNameIndex {
+
+    /**
+     * Mentions by lowercased name. Each ID remembers the names it was added under, so that renames and removals drop
+     * the old names. Several IDs may share a name, in which case it resolves to the one added last, and falls back to
+     * the others as they go.
+     */
+    static final class Names {
+
+        @RequiredArgsConstructor
+        private static final class Entry {
+
+            final String mention;
+            final String[] names;
+        }
+
+        private final Map<String, String> mentions = new ConcurrentHashMap<>();
+        private final Map<Long, Entry> entries = new HashMap<>();
+        // Everything holding each name, latest last
+        private final Map<String, List<Entry>> holders = new HashMap<>();
+
+        synchronized void put(Snowflake id, String mention, String... names) {
+            remove(id);
+            String[] keys = new String[names.length];
+            Entry entry = new Entry(mention, keys);
+            for (int i = 0; i < names.length; i++) {
+                keys[i] = names[i].toLowerCase(Locale.ROOT);
+                List<Entry> holders = this.holders.computeIfAbsent(keys[i], $ -> new ArrayList<>(1));
+                if (!holders.contains(entry)) {
+                    holders.add(entry);
+                }
+                mentions.put(keys[i], mention);
+            }
+            entries.put(id.asLong(), entry);
+        }
+
+        synchronized void remove(Snowflake id) {
+            Entry entry = entries.remove(id.asLong());
+            if (entry == null) {
+                return;
+            }
+            for (String name : entry.names) {
+                List<Entry> holders = this.holders.get(name);
+                if (holders == null || !holders.remove(entry)) {
+                    continue;
+                }
+                if (holders.isEmpty()) {
+                    this.holders.remove(name);
+                    mentions.remove(name);
+                } else {
+                    mentions.put(name, holders.get(holders.size() - 1).mention);
+                }
+            }
+        }
+
+        @Nullable
+        String get(String name) {
+            return mentions.get(name.toLowerCase(Locale.ROOT));
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+
+    @Getter
+    static final class GuildNames {
+
+        private final Names members = new Names();
+
+        // Channels and emojis are replaced as a whole, as the events for them do not say what was removed
+        private volatile Names channels = new Names();
+        private volatile Names emojis = new Names();
+    }
+
+    @RequiredArgsConstructor
+    private static final class Indexed {
+
+        final GuildNames names;
+        final Mono<GuildNames> ready;
+    }
+
+    private final GatewayDiscordClient client;
+
+    private final Map<Snowflake, Indexed> guilds = new ConcurrentHashMap<>();
+
+    GuildNameIndex(GatewayDiscordClient client) {
+        this.client = client;
+
+        client.getEventDispatcher().on(MemberJoinEvent.class)
+                .subscribe(e -> ifIndexed(e.getGuildId(), g -> addMember(g, e.getMember())));
+        client.getEventDispatcher().on(MemberUpdateEvent.class)
+                .flatMap(e -> e.getMember().onErrorResume(t -> {
+                    log.warn("Could not fetch updated member {}", e.getMemberId().asString(), t);
+                    return Mono.empty();
+                }))
+                .subscribe(m -> ifIndexed(m.getGuildId(), g -> addMember(g, m)));
+        client.getEventDispatcher().on(MemberLeaveEvent.class)
+                .subscribe(e -> ifIndexed(e.getGuildId(), g -> g.members.remove(e.getUser().getId())));
+        client.getEventDispatcher().on(EmojisUpdateEvent.class)
+                .subscribe(e -> ifIndexed(e.getGuildId(), g -> g.emojis = emojis(e.getEmojis())));
+        // Channel events do not share a way to get at the guild, and they are rare, so every indexed guild is refreshed from the store
+        client.getEventDispatcher().on(ChannelEvent.class)
+                .filter(e -> !(e instanceof TypingStartEvent || e instanceof PinsUpdateEvent))
+                .flatMap(e -> Flux.fromIterable(guilds.keySet()))
+                .flatMap(id -> client.getGuildById(id).flatMap(this::channels).map(c -> Tuples.of(id, c)))
+                .subscribe(t -> ifIndexed(t.getT1(), g -> g.channels = t.getT2()));
+        client.getEventDispatcher().on(GuildDeleteEvent.class)
+                .subscribe(e -> guilds.remove(e.getGuildId()));
+    }
+
+    /**
+     * Gets the names of the given guild, indexing it first if needed.
+     */
+    Mono<GuildNames> get(Snowflake guildId) {
+        return guilds.computeIfAbsent(guildId, id -> {
+            GuildNames names = new GuildNames();
+            return new Indexed(names, load(id, names)
+                    .doOnError(t -> guilds.remove(id))
+                    .cache());
+        }).ready;
+    }
+
+    private Mono<GuildNames> load(Snowflake guildId, GuildNames names) {
+        return client.getGuildById(guildId)
+                .flatMap(guild -> Mono.when(
+                        guild.getMembers().doOnNext(m -> addMember(names, m)),
+                        channels(guild).doOnNext(c -> names.channels = c),
+                        guild.getEmojis().collectList().doOnNext(e -> names.emojis = emojis(e))))
+                .then(Mono.fromSupplier(() -> {
+                    log.info("Indexed {} member name(s) in guild {}", names.members.size(), guildId.asString());
+                    return names;
+                }));
+    }
+
+    private void ifIndexed(Snowflake guildId, Consumer<GuildNames> action) {
+        Indexed indexed = guilds.get(guildId);
+        if (indexed != null) {
+            action.accept(indexed.names);
+        }
+    }
+
+    private static void addMember(GuildNames names, Member member) {
+        names.members.put(member.getId(), "<@" + member.getId().asString() + ">", member.getDisplayName(), member.getUsername());
+    }
+
+    private Mono<Names> channels(Guild guild) {
+        return guild.getChannels()
+                .collect(Names::new, (names, c) -> names.put(c.getId(), "<#" + c.getId().asString() + ">", c.getName()));
+    }
+
+    private static Names emojis(Iterable<GuildEmoji> emojis) {
+        Names names = new Names();
+        for (GuildEmoji e : emojis) {
+            names.put(e.getId(), (e.isAnimated() ? "<a:" : "<:") + e.getName() + ":" + e.getId().asString() + ">", e.getName());
+        }
+        return names;
+    }
+}
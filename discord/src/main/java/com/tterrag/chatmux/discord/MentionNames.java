@@ -0,0 +1,291 @@
+package com.tterrag.chatmux.discord;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.tterrag.chatmux.util.metrics.Metrics;
+
+import discord4j.common.util.Snowflake;
+import discord4j.core.GatewayDiscordClient;
+import discord4j.core.object.entity.Guild;
+import discord4j.core.object.entity.PartialMember;
+import discord4j.core.retriever.EntityRetrievalStrategy;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.Nullable;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+/**
+ * Replaces the mentions in messages relayed out of Discord with plain names: {@code <#id>} becomes {@code #channel},
+ * {@code <@id>} and {@code <@!id>} become {@code @member}, {@code <@&id>} becomes {@code @role}, and custom emotes
+ * become {@code :name:}.
+ * <p>
+ * All mentions are found in a single pass and resolved against bounded caches of names. Members mentioned in a message
+ * are sent along with it, so those never need a lookup. Whatever is still missing is then looked up once per message
+ * and kind, not once per mention: channels and roles by listing the whole guild, members by a single gateway request.
+ * Mentions which cannot be resolved are left as they are.
+ */
+@Slf4j
+class MentionNames {
+
+    static final Pattern TOKEN = Pattern.compile("<(#|@!?|@&|a?:(\\w+):)(\\d+)>");
+
+    private static final Duration MEMBER_REQUEST_TIMEOUT = Duration.ofSeconds(5);
+
+    /**
+     * Looks up names by ID, all of one kind at once.
+     */
+    interface Lookup {
+
+        Flux<Tuple2<Snowflake, String>> channels(Snowflake guildId, Set<Snowflake> ids);
+
+        Flux<Tuple2<Snowflake, String>> roles(Snowflake guildId, Set<Snowflake> ids);
+
+        Flux<Tuple2<Snowflake, String>> members(Snowflake guildId, Set<Snowflake> ids);
+    }
+
+    @RequiredArgsConstructor
+    private static class GatewayLookup implements Lookup {
+
+        private final GatewayDiscordClient client;
+
+        @Override
+        public Flux<Tuple2<Snowflake, String>> channels(Snowflake guildId, Set<Snowflake> ids) {
+            return client.getGuildById(guildId)
+                    .flatMapMany(Guild::getChannels)
+                    .map(c -> Tuples.of(c.getId(), c.getName()));
+        }
+
+        @Override
+        public Flux<Tuple2<Snowflake, String>> roles(Snowflake guildId, Set<Snowflake> ids) {
+            return client.getGuildById(guildId)
+                    .flatMapMany(Guild::getRoles)
+                    .map(r -> Tuples.of(r.getId(), r.getName()));
+        }
+
+        @Override
+        public Flux<Tuple2<Snowflake, String>> members(Snowflake guildId, Set<Snowflake> ids) {
+            Set<Snowflake> remaining = ConcurrentHashMap.newKeySet();
+            remaining.addAll(ids);
+            return Flux.fromIterable(ids)
+                    .flatMap(id -> client.withRetrievalStrategy(EntityRetrievalStrategy.STORE).getMemberById(guildId, id))
+                    .doOnNext(m -> remaining.remove(m.getId()))
+                    .concatWith(Flux.defer(() -> remaining.isEmpty() ? Flux.empty() : client.requestMembers(guildId, remaining).timeout(MEMBER_REQUEST_TIMEOUT)))
+                    .map(m -> Tuples.of(m.getId(), m.getDisplayName()));
+        }
+    }
+
+    @Value
+    private static class MemberKey {
+
+        long guild, user;
+    }
+
+    @Value
+    private static class Token {
+
+        int start, end;
+
+        char kind;
+
+        Snowflake id;
+
+        @Nullable
+        String emote;
+    }
+
+    private final Lookup lookup;
+
+    private final Cache<Snowflake, String> channels = CacheBuilder.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .recordStats()
+            .build();
+
+    private final Cache<Snowflake, String> roles = CacheBuilder.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .recordStats()
+            .build();
+
+    private final Cache<MemberKey, String> members = CacheBuilder.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .recordStats()
+            .build();
+
+    private final Cache<Snowflake, Boolean> missing = CacheBuilder.newBuilder()
+            .maximumSize(1_000)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+
+    MentionNames(GatewayDiscordClient client) {
+        this(new GatewayLookup(client));
+
+        Metrics.gauge("chatmux_discord_mention_cache_size", "Names in the Discord mention caches").register(() -> channels.size() + roles.size() + members.size());
+        Metrics.counterCallback("chatmux_discord_mention_cache_hits_total", "Discord mentions resolved from the cache").register(this::hits);
+        Metrics.counterCallback("chatmux_discord_mention_cache_misses_total", "Discord mentions which were not in the cache").register(this::misses);
+    }
+
+    MentionNames(Lookup lookup) {
+        this.lookup = lookup;
+    }
+
+    /**
+     * @param mentioned
+     *            The members sent along with the message, which are cached before anything is looked up
+     */
+    Mono<String> strip(Snowflake guildId, String content, List<PartialMember> mentioned) {
+        for (PartialMember member : mentioned) {
+            members.put(new MemberKey(guildId.asLong(), member.getId().asLong()), member.getDisplayName());
+        }
+        return strip(guildId, content);
+    }
+
+    Mono<String> strip(Snowflake guildId, String content) {
+        List<Token> tokens = tokenize(content);
+        if (tokens.isEmpty()) {
+            return Mono.just(content);
+        }
+        String[] names = new String[tokens.size()];
+        Set<Snowflake> missingChannels = new HashSet<>(), missingRoles = new HashSet<>(), missingMembers = new HashSet<>();
+        for (int i = 0; i < names.length; i++) {
+            Token token = tokens.get(i);
+            names[i] = name(guildId, token);
+            if (names[i] == null && missing.getIfPresent(token.getId()) == null) {
+                (token.getKind() == '#' ? missingChannels : token.getKind() == '&' ? missingRoles : missingMembers).add(token.getId());
+            }
+        }
+        if (missingChannels.isEmpty() && missingRoles.isEmpty() && missingMembers.isEmpty()) {
+            return Mono.just(render(guildId, content, tokens, names));
+        }
+        return Mono.when(
+                    fetch(missingChannels, ids -> lookup.channels(guildId, ids), channels::put, channels.asMap()::containsKey),
+                    fetch(missingRoles, ids -> lookup.roles(guildId, ids), roles::put, roles.asMap()::containsKey),
+                    fetch(missingMembers, ids -> lookup.members(guildId, ids), (id, name) -> members.put(new MemberKey(guildId.asLong(), id.asLong()), name),
+                            id -> members.asMap().containsKey(new MemberKey(guildId.asLong(), id.asLong()))))
+                .then(Mono.fromSupplier(() -> render(guildId, content, tokens, names)));
+    }
+
+    private static List<Token> tokenize(String content) {
+        // Every mention starts with '<', skip the matcher entirely for plain messages
+        if (content.indexOf('<') < 0) {
+            return Collections.emptyList();
+        }
+        List<Token> tokens = new ArrayList<>();
+        Matcher m = TOKEN.matcher(content);
+        while (m.find()) {
+            String prefix = m.group(1);
+            char kind = prefix.charAt(0) == '@' ? prefix.endsWith("&") ? '&' : '@' : prefix.charAt(0) == '#' ? '#' : ':';
+            tokens.add(new Token(m.start(), m.end(), kind, Snowflake.of(m.group(3)), m.group(2)));
+        }
+        return tokens;
+    }
+
+    /**
+     * Looks up the given IDs and caches the names found. IDs which are still unknown afterwards are not looked up again
+     * for a while, so that a mention of something deleted does not cause a lookup for every message.
+     */
+    private Mono<Void> fetch(Set<Snowflake> ids, Function<Set<Snowflake>, Flux<Tuple2<Snowflake, String>>> fetcher,
+            BiConsumer<Snowflake, String> cache, Predicate<Snowflake> cached) {
+        if (ids.isEmpty()) {
+            return Mono.empty();
+        }
+        return Flux.defer(() -> fetcher.apply(ids))
+                .doOnNext(t -> cache.accept(t.getT1(), t.getT2()))
+                .onErrorResume(t -> {
+                    log.error("Exception looking up mentioned names", t);
+                    return Mono.empty();
+                })
+                .then(Mono.fromRunnable(() -> ids.stream().filter(cached.negate()).forEach(id -> missing.put(id, Boolean.TRUE))));
+    }
+
+    /**
+     * Gets a name from the cache, counting it as a hit or miss.
+     */
+    @Nullable
+    private String name(Snowflake guildId, Token token) {
+        switch (token.getKind()) {
+            case '#':
+                return channels.getIfPresent(token.getId());
+            case '&':
+                return roles.getIfPresent(token.getId());
+            case '@':
+                return members.getIfPresent(new MemberKey(guildId.asLong(), token.getId().asLong()));
+            default:
+                return token.getEmote();
+        }
+    }
+
+    /**
+     * Gets a name which was just looked up, without counting it again.
+     */
+    @Nullable
+    private String fetched(Snowflake guildId, Token token) {
+        switch (token.getKind()) {
+            case '#':
+                return channels.asMap().get(token.getId());
+            case '&':
+                return roles.asMap().get(token.getId());
+            case '@':
+                return members.asMap().get(new MemberKey(guildId.asLong(), token.getId().asLong()));
+            default:
+                return token.getEmote();
+        }
+    }
+
+    long hits() {
+        return channels.stats().hitCount() + roles.stats().hitCount() + members.stats().hitCount();
+    }
+
+    long misses() {
+        return channels.stats().missCount() + roles.stats().missCount() + members.stats().missCount();
+    }
+
+    /**
+     * @param names
+     *            The names found before any lookups, the missing ones are taken from what the lookups added
+     */
+    private String render(Snowflake guildId, String content, List<Token> tokens, String[] names) {
+        StringBuilder sb = new StringBuilder(content.length());
+        int last = 0;
+        for (int i = 0; i < names.length; i++) {
+            Token token = tokens.get(i);
+            String name = names[i] != null ? names[i] : fetched(guildId, token);
+            if (name == null) {
+                continue;
+            }
+            sb.append(content, last, token.getStart());
+            switch (token.getKind()) {
+                case '#':
+                    sb.append('#').append(name);
+                    break;
+                case ':':
+                    sb.append(':').append(name).append(':');
+                    break;
+                default:
+                    sb.append('@').append(name);
+                    break;
+            }
+            last = token.getEnd();
+        }
+        return sb.append(content, last, content.length()).toString();
+    }
+}
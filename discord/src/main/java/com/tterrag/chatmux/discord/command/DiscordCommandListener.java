@@ -12,6 +12,10 @@ import com.tterrag.chatmux.api.link.LinkManager;
 import com.tterrag.chatmux.bridge.AbstractChatService;
 import com.tterrag.chatmux.bridge.ChatChannelImpl;
 import com.tterrag.chatmux.discord.DiscordService;
+import com.tterrag.chatmux.util.Diagnostics;
+import com.tterrag.chatmux.util.metrics.Histogram;
+import com.tterrag.chatmux.util.metrics.MetricFamily;
+import com.tterrag.chatmux.util.metrics.Metrics;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -75,12 +79,71 @@ public class DiscordCommandListener implements CommandListener {
                     .flatMap(link -> link.prettyPrint(DiscordService.getInstance()))
                     .collect(Collectors.joining("\n"))
                     .flatMap(msg -> ctx.reply(msg.length() == 0 ? "No links!" : msg.toString()));
+        } else if (command.equals("~profile")) {
+            if (!isAdmin(ctx.getUserId())) {
+                return ctx.reply("Only admins can change the performance profile");
+            }
+            if (args.length >= 1) {
+                if (!args[0].equals("on") && !args[0].equals("off")) {
+                    return ctx.reply("Usage: `~profile [on|off]`");
+                }
+                Diagnostics.setPerformanceProfile(args[0].equals("on"));
+            }
+            return ctx.reply("Performance profile is " + (Diagnostics.isPerformanceProfile() ? "on" : "off"));
+        } else if (command.equals("~stats")) {
+            if (!isAdmin(ctx.getUserId())) {
+                return ctx.reply("Only admins can view stats");
+            }
+            return ctx.reply(getStats());
         }
         return Mono.empty();
     }
     
+    private static String getStats() {
+        return String.format("```%n"
+                + "Links:             %.0f%n"
+                + "Inbound:           %.0f%n"
+                + "Delivered:         %.0f (%.0f failed, %.0f dropped, %.0f coalesced)%n"
+                + "Queued:            %.0f%n"
+                + "Send latency:      %.1fms mean%n"
+                + "Wiretap time:      %.1fms mean%n"
+                + "REST requests:     %.0f (%.0f rate limited), %.1fms mean%n"
+                + "Websockets:        %.0f connects, %.0f disconnects%n"
+                + "Message index:     %.0f entries, %.1f%% hits%n"
+                + "Twitch user cache: %.0f entries, %.1f%% hits%n"
+                + "```",
+                sum("chatmux_links"),
+                sum("chatmux_messages_inbound_total"),
+                sum("chatmux_delivered_total"), sum("chatmux_delivery_failed_total"), sum("chatmux_delivery_dropped_total"), sum("chatmux_delivery_coalesced_total"),
+                sum("chatmux_delivery_queue_depth"),
+                meanMillis("chatmux_send_seconds"),
+                meanMillis("chatmux_wiretap_seconds"),
+                sum("chatmux_http_request_seconds"), sum("chatmux_http_rate_limited_total"), meanMillis("chatmux_http_request_seconds"),
+                sum("chatmux_websocket_connections_total"), sum("chatmux_websocket_disconnects_total"),
+                sum("chatmux_message_index_size"), sum("chatmux_message_index_hit_ratio") * 100,
+                sum("chatmux_twitch_user_cache_size"), sum("chatmux_twitch_user_cache_hit_ratio") * 100);
+    }
+    
+    private static double sum(String metric) {
+        MetricFamily<?> family = Metrics.find(metric);
+        return family == null ? 0 : family.sum();
+    }
+    
+    private static double meanMillis(String metric) {
+        MetricFamily<?> family = Metrics.find(metric);
+        return family instanceof Histogram ? ((Histogram) family).mean() * 1000 : 0;
+    }
+    
+    private boolean isAdmin(String userId) {
+        try {
+            return DiscordService.getInstance().getData().getAdmins().contains(Long.parseLong(userId));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+    
     @Override
     public Mono<Boolean> canHandle(ChatService<?> service, String command, String args) {
-        return Mono.fromSupplier(() -> service == DiscordService.getInstance() && (command.equals("+link") || command.equals("+linkraw") || command.equals("-link") || command.equals("~links")));
+        return Mono.fromSupplier(() -> service == DiscordService.getInstance() && (command.equals("+link") || command.equals("+linkraw") || command.equals("-link") || command.equals("~links") || command.equals("~profile") || command.equals("~stats")));
     }
 }
@@ -0,0 +1,54 @@
+package com.tterrag.chatmux.discord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+import discord4j.common.util.Snowflake;
+
+public class GuildNameIndexTest {
+
+    private static final Snowflake A = Snowflake.of(1), B = Snowflake.of(2), C = Snowflake.of(3);
+
+    @Test
+    public void renameDropsOldName() {
+        GuildNameIndex.Names names = new GuildNameIndex.Names();
+        names.put(A, "<@1>", "Alice", "alice_");
+        names.put(A, "<@1>", "Alicia", "alice_");
+        assertNull(names.get("alice"));
+        assertEquals("<@1>", names.get("ALICIA"));
+        assertEquals("<@1>", names.get("alice_"));
+        assertEquals(1, names.size());
+    }
+
+    @Test
+    public void sharedNameFallsBack() {
+        GuildNameIndex.Names names = new GuildNameIndex.Names();
+        names.put(A, "<@1>", "bob", "bob");
+        names.put(B, "<@2>", "Bob", "bobby");
+        names.put(C, "<@3>", "carol", "c");
+        // The latest holder wins
+        assertEquals("<@2>", names.get("bob"));
+
+        names.remove(B);
+        assertEquals("<@1>", names.get("bob"));
+        assertNull(names.get("bobby"));
+
+        // Renaming A away leaves nobody called bob
+        names.put(A, "<@1>", "robert", "robert");
+        assertNull(names.get("bob"));
+        assertEquals("<@1>", names.get("robert"));
+    }
+
+    @Test
+    public void removingEarlierHolderKeepsLatest() {
+        GuildNameIndex.Names names = new GuildNameIndex.Names();
+        names.put(A, "<@1>", "bob");
+        names.put(B, "<@2>", "bob");
+        names.remove(A);
+        assertEquals("<@2>", names.get("bob"));
+        names.remove(B);
+        assertNull(names.get("bob"));
+    }
+}
@@ -0,0 +1,71 @@
+package com.tterrag.chatmux.discord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import discord4j.common.util.Snowflake;
+import reactor.core.publisher.Flux;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+public class MentionNamesTest {
+
+    private static final Snowflake GUILD = Snowflake.of(100);
+
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    private final MentionNames names = new MentionNames(new MentionNames.Lookup() {
+
+        @Override
+        public Flux<Tuple2<Snowflake, String>> channels(Snowflake guildId, Set<Snowflake> ids) {
+            lookups.incrementAndGet();
+            return Flux.just(Tuples.of(Snowflake.of(5), "general"));
+        }
+
+        @Override
+        public Flux<Tuple2<Snowflake, String>> roles(Snowflake guildId, Set<Snowflake> ids) {
+            lookups.incrementAndGet();
+            return Flux.empty();
+        }
+
+        @Override
+        public Flux<Tuple2<Snowflake, String>> members(Snowflake guildId, Set<Snowflake> ids) {
+            lookups.incrementAndGet();
+            return Flux.just(Tuples.of(Snowflake.of(1), "alice"));
+        }
+    });
+
+    @Test
+    public void stripsMentions() {
+        assertEquals("@alice in #general :wave: <@&9>", names.strip(GUILD, "<@!1> in <#5> <:wave:7> <@&9>").block());
+        assertEquals(3, lookups.get());
+        // Nothing is looked up again, the unknown role included
+        assertEquals("@alice in #general", names.strip(GUILD, "<@1> in <#5>").block());
+        assertEquals("<@&9>", names.strip(GUILD, "<@&9>").block());
+        assertEquals(3, lookups.get());
+    }
+
+    @Test
+    public void countsEachMentionOnce() {
+        String content = "<@1> hi <#5> <@1> <:wave:7>";
+        assertEquals("@alice hi #general @alice :wave:", names.strip(GUILD, content).block());
+        // Filled in by the lookup, which is neither another miss nor a hit
+        assertEquals(0, names.hits());
+        assertEquals(3, names.misses());
+
+        assertEquals("@alice hi #general @alice :wave:", names.strip(GUILD, content).block());
+        assertEquals(3, names.hits());
+        assertEquals(3, names.misses());
+    }
+
+    @Test
+    public void plainMessagesSkipTheCaches() {
+        assertEquals("no mentions here", names.strip(GUILD, "no mentions here").block());
+        assertEquals(0, names.hits() + names.misses());
+        assertEquals(0, lookups.get());
+    }
+}
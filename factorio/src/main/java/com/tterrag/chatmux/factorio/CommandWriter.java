@@ -0,0 +1,157 @@
+package com.tterrag.chatmux.factorio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.tterrag.chatmux.util.metrics.Histogram;
+import com.tterrag.chatmux.util.metrics.Metrics;
+
+import emoji4j.EmojiUtils;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.annotation.Nullable;
+
+/**
+ * Writes commands to the input of the Factorio server, which is usually a named pipe.
+ * <p>
+ * Commands are queued and written by a single thread, which keeps the file open. Everything queued while a write is
+ * in progress goes out together in the next one, up to {@value #MAX_BATCH} commands. The queue holds at most
+ * {@value #QUEUE_SIZE} commands, beyond that new ones are rejected instead of blocking the caller.
+ * <p>
+ * If a write fails, for instance because the server was restarted, the file is reopened and the batch is written once
+ * more. If that fails too, the batch is lost. Its commands were accepted already, so this is only reported through the
+ * error handler. Opening a named pipe blocks until the server reads from it, which only ever holds up the writer thread.
+ * <p>
+ * There is one writer per client, and it lives as long as the process.
+ */
+@Slf4j
+class CommandWriter {
+
+    private static final int QUEUE_SIZE = 1024;
+    private static final int MAX_BATCH = 256;
+
+    private static final Histogram WRITE_LATENCY = Metrics.histogram("chatmux_factorio_write_seconds", "Time from queueing a Factorio command until it was written");
+
+    @Value
+    private static class Command {
+
+        String line;
+
+        long queuedAt;
+    }
+
+    private final File output;
+    private final Consumer<IOException> errorHandler;
+
+    private final BlockingQueue<Command> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    private final Scheduler scheduler = Schedulers.newSingle("Factorio command writer", true);
+
+    private final AtomicLong written = new AtomicLong(), batches = new AtomicLong(), dropped = new AtomicLong(), failed = new AtomicLong();
+
+    @Nullable
+    private FileChannel channel;
+
+    CommandWriter(File output, Consumer<IOException> errorHandler) {
+        this.output = output;
+        this.errorHandler = errorHandler;
+
+        Metrics.gauge("chatmux_factorio_write_backlog", "Factorio commands waiting to be written").register(queue::size);
+        Metrics.counterCallback("chatmux_factorio_written_total", "Factorio commands written").register(written::get);
+        Metrics.counterCallback("chatmux_factorio_write_batches_total", "Writes of one or more Factorio commands").register(batches::get);
+        Metrics.counterCallback("chatmux_factorio_write_dropped_total", "Factorio commands rejected because the queue was full").register(dropped::get);
+        Metrics.counterCallback("chatmux_factorio_write_failed_total", "Factorio commands which could not be written").register(failed::get);
+
+        scheduler.schedule(this::run);
+    }
+
+    /**
+     * Queues a command to be written.
+     *
+     * @return False if the queue is full, in which case the command is dropped
+     */
+    boolean submit(String command) {
+        if (!queue.offer(new Command(command, System.nanoTime()))) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void run() {
+        List<Command> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                write(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // The writer lives as long as the process, this only happens on shutdown
+        } finally {
+            close();
+        }
+    }
+
+    private void write(List<Command> batch) {
+        StringBuilder sb = new StringBuilder();
+        for (Command command : batch) {
+            sb.append(EmojiUtils.shortCodify(command.getLine())).append('\n');
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        for (int attempt = 0;; attempt++) {
+            try {
+                FileChannel channel = this.channel;
+                if (channel == null) {
+                    channel = this.channel = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                }
+                ByteBuffer buf = ByteBuffer.wrap(bytes);
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                break;
+            } catch (IOException e) {
+                close();
+                if (attempt == 0) {
+                    log.warn("Could not write to {}, reopening it", output, e);
+                    continue;
+                }
+                failed.addAndGet(batch.size());
+                errorHandler.accept(e);
+                return;
+            }
+        }
+        long now = System.nanoTime();
+        Histogram.Child latency = WRITE_LATENCY.labels();
+        for (Command command : batch) {
+            latency.observeNanos(now - command.getQueuedAt());
+        }
+        written.addAndGet(batch.size());
+        batches.incrementAndGet();
+    }
+
+    private void close() {
+        FileChannel channel = this.channel;
+        if (channel != null) {
+            this.channel = null;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error("Could not close {}", output, e);
+            }
+        }
+    }
+}
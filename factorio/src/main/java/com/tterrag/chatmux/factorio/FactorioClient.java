@@ -1,18 +1,13 @@
 package com.tterrag.chatmux.factorio;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.io.input.Tailer;
-import org.apache.commons.io.input.TailerListenerAdapter;
-
 import emoji4j.EmojiUtils;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.EmitterProcessor;
@@ -22,17 +17,19 @@ import reactor.core.scheduler.Schedulers;
 import reactor.util.annotation.NonNull;
 import reactor.util.annotation.Nullable;
 
-@RequiredArgsConstructor
 @Accessors(fluent = true)
 @Slf4j
 public class FactorioClient {
     
     private static final String TIMESTAMP_REGEX = "(?<date>\\d{4}-\\d{2}-\\d{2})\\s(?<time>\\d{2}:\\d{2}:\\d{2})";
     
+    // Where the tag starts, after the fixed width "yyyy-MM-dd HH:mm:ss " timestamp
+    private static final int TAG_OFFSET = 20;
+    
     private static final Pattern CHAT_MSG = Pattern.compile(
             TIMESTAMP_REGEX + "\\s"
             + "\\[(?<type>CHAT|SHOUT)\\]\\s"
-            + "(?!<server>)(?<user>[^\\S:]+)\\s*"
+            + "(?!<server>)(?<user>[^\\s:]+)\\s*"
             + "(?:\\[(?<team>[^\\]]+)\\])?\\s*"
             + "(?:\\(shout\\))?:\\s*"
             + "(?<message>.+)$"
@@ -41,14 +38,14 @@ public class FactorioClient {
     private static final Pattern JOIN_LEAVE_MSG = Pattern.compile(    
             TIMESTAMP_REGEX + "\\s"
             + "\\[(?<type>JOIN|LEAVE)\\]\\s"
-            + "(?<user>[^\\S:]+)\\s"
+            + "(?<user>[^\\s:]+)\\s"
             + "(?<message>.+)$"
     );
     
     private static final Pattern COMMAND_MSG = Pattern.compile(
             TIMESTAMP_REGEX + "\\s"
             + "\\[(?<type>COMMAND)\\]\\s"
-            + "(?!<server>)(?<user>[^\\S:]+)\\s*"
+            + "(?!<server>)(?<user>[^\\s:]+)\\s*"
             + "(?:\\[(?<team>[^\\]]+)\\])?\\s*"
             + "(?:\\(command\\)):\\s*"
             + "(?<message>.+)$"
@@ -58,79 +55,94 @@ public class FactorioClient {
     public static final String GLOBAL_TEAM = "global";
     
     @NonNull
-    private final File input, output;
+    private final File input;
 
     @Getter
     @NonNull
     private final EmitterProcessor<FactorioMessage> inbound = EmitterProcessor.create(false);
-    @NonNull
-    private final EmitterProcessor<String> outbound = EmitterProcessor.create(false);
     
     @NonNull
     private final FluxSink<FactorioMessage> inboundSink = inbound.sink(FluxSink.OverflowStrategy.LATEST);
+    
     @NonNull
-    private final FluxSink<String> outboundSink = outbound.sink(FluxSink.OverflowStrategy.LATEST); 
+    private final CommandWriter writer;
+    
+    public FactorioClient(File input, File output) {
+        this.input = input;
+        this.writer = new CommandWriter(output, e -> {
+            log.error("Exception from factorio output", e);
+            inboundSink.next(new FactorioMessage("ERROR", GLOBAL_TEAM, e.toString(), false));
+        });
+    }
     
     public Mono<Void> connect() {
-        Tailer tailer = new Tailer(input, new TailerListenerAdapter() {
-            @Override
-            public void handle(@Nullable String line) {
-                log.debug("Processing input: " + line);
-                line = line == null ? "" : line.trim();
-                Matcher m = CHAT_MSG.matcher(line);
-                if (m.matches()) {
-                    String type = m.group("type");
-                    String team = "SHOUT".equals(type) ? GLOBAL_TEAM : m.group("team");
-                    if (team == null) {
-                        team = GLOBAL_TEAM;
-                    }
-                    inboundSink.next(new FactorioMessage(m.group("user"), team, EmojiUtils.emojify(m.group("message")), false));
-                    return;
-                }
-                m = JOIN_LEAVE_MSG.matcher(line);
-                if (m.matches()) {
-                    inboundSink.next(new FactorioMessage(m.group("user"), GLOBAL_TEAM, m.group("message"), true));
-                    return;
-                }
-                m = COMMAND_MSG.matcher(line);
-                if (m.matches()) {
-                    inboundSink.next(new FactorioMessage(m.group("user"), GLOBAL_TEAM, "Ran command: `" + m.group("message") + "`", true));
-                    return;
-                }
-            }
-          
-            @Override
-            public void handle(@Nullable Exception ex) {
-                log.error("Exception from factorio output tailer", ex);
-                inboundSink.next(new FactorioMessage("ERROR", GLOBAL_TEAM, ex == null ? "Unknown" : ex.toString(), false));
-            }
-            
-            @Override
-            public void fileNotFound() {
-                inboundSink.error(new FileNotFoundException(input.getAbsolutePath()));
-            }
-        }, 1000, true);
+        LogFollower follower = new LogFollower(input.toPath(), this::handleLine, e -> {
+            log.error("Exception from factorio output reader", e);
+            inboundSink.next(new FactorioMessage("ERROR", GLOBAL_TEAM, e.toString(), false));
+        });
         
-        return Mono.fromRunnable(tailer::run)
+        return Mono.<Void>fromCallable(() -> {
+              follower.follow();
+              return null;
+          })
           .subscribeOn(Schedulers.newSingle("Factorio chat reader", true))
+          .doOnError(FileNotFoundException.class, inboundSink::error)
           .doOnCancel(() -> {
               log.error("Chat reader canceled");
-              tailer.stop();
+              follower.stop();
           })
-          .zipWith(outbound.flatMap(s -> 
-              Mono.fromCallable(() -> {
-                  try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
-                      out.write((EmojiUtils.shortCodify(s) + "\n").getBytes());
-                  }
-                  return s;
-              })
-              .doOnError(t -> inboundSink.next(new FactorioMessage("ERROR", GLOBAL_TEAM, t.toString(), false)))
-              .doOnError(t -> log.error("Exception from factorio output", t))
-          ).then())
           .then();
     }
 
-    public FluxSink<String> outbound() {
-        return outboundSink;
+    private void handleLine(byte[] buf, int start, int end) {
+        while (start < end && buf[start] <= ' ') {
+            start++;
+        }
+        // Every line that can be parsed has a [TYPE] tag right after the timestamp, so anything else is not even decoded
+        if (end - start <= TAG_OFFSET || buf[start + TAG_OFFSET] != '[') {
+            return;
+        }
+        String line = new String(buf, start, end - start, StandardCharsets.UTF_8).trim();
+        log.debug("Processing input: {}", line);
+        FactorioMessage message = parseLine(line);
+        if (message != null) {
+            inboundSink.next(message);
+        }
+    }
+
+    /**
+     * Parses a single line of the server console log.
+     * 
+     * @return The message on that line, or null if it is not a chat, join/leave or command message
+     */
+    @Nullable
+    static FactorioMessage parseLine(String line) {
+        Matcher m = CHAT_MSG.matcher(line);
+        if (m.matches()) {
+            String type = m.group("type");
+            String team = "SHOUT".equals(type) ? GLOBAL_TEAM : m.group("team");
+            if (team == null) {
+                team = GLOBAL_TEAM;
+            }
+            return new FactorioMessage(m.group("user"), team, EmojiUtils.emojify(m.group("message")), false);
+        }
+        m = JOIN_LEAVE_MSG.matcher(line);
+        if (m.matches()) {
+            return new FactorioMessage(m.group("user"), GLOBAL_TEAM, m.group("message"), true);
+        }
+        m = COMMAND_MSG.matcher(line);
+        if (m.matches()) {
+            return new FactorioMessage(m.group("user"), GLOBAL_TEAM, "Ran command: `" + m.group("message") + "`", true);
+        }
+        return null;
+    }
+
+    /**
+     * Queues a command for the server.
+     * 
+     * @return False if too many commands are already waiting to be written, in which case this one is dropped
+     */
+    public boolean send(String command) {
+        return writer.submit(command);
     }
 }
@@ -39,8 +39,9 @@ public class FactorioSource implements ChatSource<FactorioMessage> {
     @Override
     public Mono<FactorioMessage> send(String channel, ChatMessage<?> message, boolean raw) {
         String content = raw ? message.getContent() : message.toString();
-        return Mono.just(factorio.outbound())
-                .doOnNext(sink -> sink.next(String.format(FactorioClient.GLOBAL_TEAM.equals(channel) ? GLOBAL_CHAT : TEAM_CHAT, content.replaceAll("\\r?\\n", "\\\\n"), channel)))
+        return Mono.fromSupplier(() -> String.format(FactorioClient.GLOBAL_TEAM.equals(channel) ? GLOBAL_CHAT : TEAM_CHAT, content.replaceAll("\\r?\\n", "\\\\n"), channel))
+                .filter(factorio::send)
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("Too many Factorio commands waiting to be written")))
                 .map(s -> new FactorioMessage(message.getUser(), channel, content, false));
     }
 
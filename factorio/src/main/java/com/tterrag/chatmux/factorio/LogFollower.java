@@ -0,0 +1,297 @@
+package com.tterrag.chatmux.factorio;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.util.annotation.Nullable;
+
+/**
+ * Follows a growing log file, like {@code tail -F}, and hands every complete new line to a callback.
+ * <p>
+ * Changes are picked up through a {@link WatchService} on the parent directory, so lines are read as soon as they are
+ * written. The file is still checked every {@value #WATCH_TIMEOUT}ms in case a notification is missed. Where the file
+ * system cannot be watched the file is polled instead, every {@value #MIN_POLL_DELAY}ms while lines are coming in,
+ * backing off to {@value #MAX_POLL_DELAY}ms while it is idle.
+ * <p>
+ * New bytes are read through a {@link FileChannel} into a reused buffer, and lines are handed over as byte ranges of
+ * it, so that lines of no interest never need to be decoded. If the file shrinks it is read again from the start. If
+ * it is replaced, the rest of the old file is read before moving on to the new one.
+ */
+@Slf4j
+class LogFollower {
+
+    @FunctionalInterface
+    interface LineHandler {
+
+        /**
+         * @param buf
+         *            The bytes of the line, only valid until this returns
+         * @param start
+         *            The start of the line, inclusive
+         * @param end
+         *            The end of the line, exclusive, without the line terminator
+         */
+        void line(byte[] buf, int start, int end);
+    }
+
+    private static final long WATCH_TIMEOUT = 1000;
+    private static final long MIN_POLL_DELAY = 10;
+    private static final long MAX_POLL_DELAY = 1000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE = 1024 * 1024;
+
+    private final Path file;
+    private final LineHandler handler;
+    private final Consumer<IOException> errorHandler;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    // The start of a line which has not been terminated yet
+    private byte[] partial = new byte[256];
+    private int partialLength;
+
+    @Nullable
+    private FileChannel channel;
+    @Nullable
+    private Object fileKey;
+    private long position;
+
+    @Nullable
+    private volatile WatchService watcher;
+    private volatile boolean stopped;
+
+    LogFollower(Path file, LineHandler handler, Consumer<IOException> errorHandler) {
+        this.file = file.toAbsolutePath();
+        this.handler = handler;
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Follows the file from its current end until {@link #stop() stopped}, blocking the calling thread.
+     *
+     * @throws FileNotFoundException
+     *             If the file does not exist to begin with
+     */
+    void follow() throws IOException, InterruptedException {
+        if (!open(true)) {
+            throw new FileNotFoundException(file.toString());
+        }
+        WatchService watcher = this.watcher = createWatcher();
+        long delay = MIN_POLL_DELAY;
+        try {
+            while (!stopped) {
+                boolean read;
+                try {
+                    read = poll();
+                } catch (IOException e) {
+                    errorHandler.accept(e);
+                    closeChannel();
+                    read = false;
+                }
+                if (read) {
+                    delay = MIN_POLL_DELAY;
+                    continue;
+                }
+                if (watcher != null) {
+                    WatchKey key = watcher.poll(WATCH_TIMEOUT, TimeUnit.MILLISECONDS);
+                    // Which file changed does not matter, checking ours is cheap
+                    if (key != null) {
+                        key.pollEvents();
+                        if (!key.reset()) {
+                            log.warn("Stopped receiving changes to {}, polling it instead", file.getParent());
+                            watcher.close();
+                            watcher = this.watcher = null;
+                        }
+                    }
+                } else {
+                    Thread.sleep(delay);
+                    delay = Math.min(delay * 2, MAX_POLL_DELAY);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Stopped
+        } finally {
+            closeChannel();
+            if (watcher != null) {
+                watcher.close();
+            }
+        }
+    }
+
+    void stop() {
+        stopped = true;
+        WatchService watcher = this.watcher;
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                log.error("Could not close watch service", e);
+            }
+        }
+    }
+
+    @Nullable
+    private WatchService createWatcher() {
+        try {
+            WatchService watcher = file.getFileSystem().newWatchService();
+            // Some platforms only emulate watching by scanning the directory every few seconds, which is worse than polling ourselves
+            if (watcher.getClass().getSimpleName().startsWith("Polling")) {
+                watcher.close();
+                log.info("No native file watching available, polling {}", file);
+                return null;
+            }
+            file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            return watcher;
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("Could not watch {}, polling it instead", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Opens the file, either at its end, or where it was left if it is still the same file, or otherwise at its start.
+     *
+     * @return False if the file does not exist
+     */
+    private boolean open(boolean atEnd) throws IOException {
+        try {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            Object key = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+            if (atEnd) {
+                position = channel.size();
+            } else if (key == null || !key.equals(fileKey)) {
+                position = 0;
+            }
+            this.channel = channel;
+            this.fileKey = key;
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private void closeChannel() throws IOException {
+        FileChannel channel = this.channel;
+        if (channel != null) {
+            this.channel = null;
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads everything written since the last call.
+     *
+     * @return True if anything was read
+     */
+    private boolean poll() throws IOException {
+        FileChannel channel = this.channel;
+        if (channel == null) {
+            // Waiting for the file to be created again
+            return open(false) && read();
+        }
+        if (channel.size() < position) {
+            log.info("{} was truncated, reading it from the start", file);
+            position = 0;
+            partialLength = 0;
+        }
+        if (read()) {
+            return true;
+        }
+        if (replaced()) {
+            log.info("{} was replaced, reading the new file from the start", file);
+            closeChannel();
+            if (partialLength > 0) {
+                emit(partial, 0, partialLength);
+                partialLength = 0;
+            }
+            return open(false) && read();
+        }
+        return false;
+    }
+
+    private boolean replaced() throws IOException {
+        try {
+            Object current = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+            // Without file keys, a replacement can only be noticed by the file shrinking
+            return current != null && fileKey != null && !Objects.equals(current, fileKey);
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+    }
+
+    private boolean read() throws IOException {
+        FileChannel channel = Objects.requireNonNull(this.channel);
+        boolean any = false;
+        int n;
+        while ((n = channel.read(buffer, position)) > 0) {
+            position += n;
+            any = true;
+            split(buffer.array(), buffer.position());
+            buffer.clear();
+        }
+        return any;
+    }
+
+    private void split(byte[] bytes, int length) {
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            if (partialLength > 0) {
+                append(bytes, start, i);
+                emit(partial, 0, partialLength);
+                partialLength = 0;
+            } else {
+                emit(bytes, start, i);
+            }
+            start = i + 1;
+        }
+        if (start < length) {
+            append(bytes, start, length);
+        }
+    }
+
+    private void emit(byte[] bytes, int start, int end) {
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        try {
+            handler.line(bytes, start, end);
+        } catch (RuntimeException e) {
+            // One bad line should not stop the rest from being read
+            log.error("Exception handling line from {}", file, e);
+        }
+    }
+
+    private void append(byte[] bytes, int start, int end) {
+        int length = end - start;
+        if (partialLength + length > MAX_LINE) {
+            log.warn("Discarding line of more than {} bytes in {}", MAX_LINE, file);
+            partialLength = 0;
+            return;
+        }
+        if (partialLength + length > partial.length) {
+            partial = Arrays.copyOf(partial, Math.max(partial.length * 2, partialLength + length));
+        }
+        System.arraycopy(bytes, start, partial, partialLength, length);
+        partialLength += length;
+    }
+}
@@ -0,0 +1,74 @@
+package com.tterrag.chatmux.factorio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class FactorioClientTest {
+
+    @BeforeAll
+    public static void service() {
+        // Messages need the service instance
+        new FactorioService();
+    }
+
+    private static FactorioMessage parse(String line) {
+        FactorioMessage message = FactorioClient.parseLine(line);
+        assertNotNull(message, line);
+        return message;
+    }
+
+    @Test
+    public void chat() {
+        FactorioMessage message = parse("2020-05-20 21:03:15 [CHAT] tterrag: evening all");
+        assertEquals("tterrag", message.getUser());
+        assertEquals(FactorioClient.GLOBAL_TEAM, message.getChannel());
+        assertEquals("evening all", message.getContent());
+    }
+
+    @Test
+    public void teamChat() {
+        FactorioMessage message = parse("2020-05-20 21:08:01 [CHAT] SpaghettiFactory [builders]: rail blueprint: \"RHD 2-4\"");
+        assertEquals("SpaghettiFactory", message.getUser());
+        assertEquals("builders", message.getChannel());
+        assertEquals("rail blueprint: \"RHD 2-4\"", message.getContent());
+    }
+
+    @Test
+    public void shout() {
+        FactorioMessage message = parse("2020-05-20 21:05:57 [SHOUT] BeltWeaver [player] (shout): biters at the north wall");
+        assertEquals("BeltWeaver", message.getUser());
+        assertEquals(FactorioClient.GLOBAL_TEAM, message.getChannel());
+        assertEquals("biters at the north wall", message.getContent());
+    }
+
+    @Test
+    public void joinLeave() {
+        FactorioMessage join = parse("2020-05-20 21:03:42 [JOIN] BeltWeaver joined the game");
+        assertEquals("BeltWeaver", join.getUser());
+        assertEquals(FactorioClient.GLOBAL_TEAM, join.getChannel());
+        assertEquals("*joined the game*", join.getContent());
+
+        FactorioMessage leave = parse("2020-05-20 21:10:40 [LEAVE] BeltWeaver left the game");
+        assertEquals("BeltWeaver", leave.getUser());
+        assertEquals("*left the game*", leave.getContent());
+    }
+
+    @Test
+    public void command() {
+        FactorioMessage message = parse("2020-05-20 21:06:30 [COMMAND] tterrag (command): game.player.print(1)");
+        assertEquals("tterrag", message.getUser());
+        assertEquals(FactorioClient.GLOBAL_TEAM, message.getChannel());
+        assertEquals("*Ran command: `game.player.print(1)`*", message.getContent());
+    }
+
+    @Test
+    public void ignoresOtherLines() {
+        assertNull(FactorioClient.parseLine("2020-05-20 21:07:48 [CHAT] <server>: Saving map in 5 seconds"));
+        assertNull(FactorioClient.parseLine("2020-05-20 21:02:00 [WARNING] something else"));
+        assertNull(FactorioClient.parseLine(""));
+    }
+}
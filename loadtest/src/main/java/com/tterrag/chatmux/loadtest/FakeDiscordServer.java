@@ -0,0 +1,178 @@
+package com.tterrag.chatmux.loadtest;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.reactivestreams.Publisher;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import lombok.RequiredArgsConstructor;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+/**
+ * A local stand-in for the Discord webhook API. Every request takes a fixed time to answer, and 429s are sent either
+ * when a webhook goes over its limit, with the same headers Discord uses, or unconditionally for every n-th request.
+ */
+class FakeDiscordServer implements Disposable {
+
+    @RequiredArgsConstructor
+    private static class Window {
+
+        final long length;
+
+        long start;
+        int used;
+
+        /**
+         * @return The milliseconds until the window resets if the request is over the limit, otherwise -1
+         */
+        synchronized long acquire(int limit, long now) {
+            if (now - start >= length) {
+                start = now;
+                used = 0;
+            }
+            if (used >= limit) {
+                return start + length - now;
+            }
+            used++;
+            return -1;
+        }
+
+        synchronized int remaining(int limit) {
+            return limit - used;
+        }
+
+        synchronized long resetAfter(long now) {
+            return Math.max(start + length - now, 0);
+        }
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Duration latency;
+    private final int limit;
+    private final long window;
+    private final int rateLimitEvery;
+
+    /**
+     * Called with the webhook ID and content of every accepted message.
+     */
+    private final BiConsumer<String, String> listener;
+
+    private final DisposableServer server;
+
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong ids = new AtomicLong();
+
+    FakeDiscordServer(LoadTestOptions options, BiConsumer<String, String> listener) {
+        this.latency = Duration.ofMillis(options.getLatency());
+        this.limit = options.getWebhookLimit();
+        this.window = options.getWebhookWindow();
+        this.rateLimitEvery = options.getRateLimitEvery();
+        this.listener = listener;
+        this.server = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .route(routes -> routes.post("/webhooks/{id}/{token}", this::execute))
+                .bindNow();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.port();
+    }
+
+    private Publisher<Void> execute(HttpServerRequest req, HttpServerResponse res) {
+        String webhook = String.valueOf(req.param("id"));
+        long count = requests.incrementAndGet();
+        long now = System.currentTimeMillis();
+        Window bucket = windows.computeIfAbsent(webhook, $ -> new Window(window));
+        if (rateLimitEvery > 0 && count % rateLimitEvery == 0) {
+            return rateLimit(req, res, 100);
+        }
+        if (limit > 0) {
+            long retryAfter = bucket.acquire(limit, now);
+            if (retryAfter >= 0) {
+                return rateLimit(req, res, retryAfter);
+            }
+            res.header("X-RateLimit-Limit", Integer.toString(limit))
+               .header("X-RateLimit-Remaining", Integer.toString(bucket.remaining(limit)))
+               .header("X-RateLimit-Reset-After", seconds(bucket.resetAfter(now)))
+               .header("X-RateLimit-Bucket", webhook);
+        }
+        return req.receive().aggregate().asString()
+                .delayElement(latency)
+                .flatMap(body -> {
+                    JsonNode payload = readTree(body);
+                    String content = payload.path("content").asText();
+                    listener.accept(webhook, content);
+                    ObjectNode message = mapper.createObjectNode()
+                            .put("id", Long.toString(ids.incrementAndGet()))
+                            .put("channel_id", webhook)
+                            .put("webhook_id", webhook)
+                            .put("content", content);
+                    message.putObject("author").put("id", webhook).put("username", payload.path("username").asText()).put("bot", true);
+                    return res.header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                            .sendString(Mono.just(message.toString()))
+                            .then();
+                });
+    }
+
+    private Mono<Void> rateLimit(HttpServerRequest req, HttpServerResponse res, long retryAfter) {
+        rateLimited.incrementAndGet();
+        return req.receive().then(res.status(HttpResponseStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                .header("Retry-After", seconds(retryAfter))
+                .header("X-RateLimit-Remaining", "0")
+                .header("X-RateLimit-Reset-After", seconds(retryAfter))
+                .header("X-RateLimit-Scope", "user")
+                .sendString(Mono.just("{\"message\":\"You are being rate limited.\",\"retry_after\":" + seconds(retryAfter) + ",\"global\":false}"))
+                .then());
+    }
+
+    private JsonNode readTree(String body) {
+        try {
+            return mapper.readTree(body);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Malformed webhook payload: " + body, e);
+        }
+    }
+
+    private static String seconds(long millis) {
+        return String.format(Locale.ROOT, "%.3f", millis / 1000.0);
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    long getRateLimited() {
+        return rateLimited.get();
+    }
+
+    @Override
+    public void dispose() {
+        server.disposeNow();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return server.isDisposed();
+    }
+}
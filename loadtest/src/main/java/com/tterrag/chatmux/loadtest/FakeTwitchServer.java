@@ -0,0 +1,134 @@
+package com.tterrag.chatmux.loadtest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Publisher;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.websocket.WebsocketInbound;
+import reactor.netty.http.websocket.WebsocketOutbound;
+
+/**
+ * A local stand-in for Twitch chat over websockets. It understands just enough IRC for {@code TwitchSource}: the
+ * login, joining and parting channels, and pings. Messages are injected with {@link #send(String, int, String)} and
+ * go out to every connection in the channel, with the same tags Twitch would send.
+ */
+@Slf4j
+class FakeTwitchServer implements Disposable {
+
+    private static final Sinks.EmitFailureHandler RETRY_NON_SERIALIZED = (signal, result) -> result == Sinks.EmitResult.FAIL_NON_SERIALIZED;
+
+    private final DisposableServer server;
+
+    private final Map<String, Set<Sinks.Many<String>>> channels = new ConcurrentHashMap<>();
+
+    private final AtomicLong ids = new AtomicLong();
+
+    FakeTwitchServer() {
+        this.server = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .route(routes -> routes.ws("/", this::handle))
+                .bindNow();
+    }
+
+    String getUrl() {
+        return "ws://127.0.0.1:" + server.port() + "/";
+    }
+
+    private Publisher<Void> handle(WebsocketInbound in, WebsocketOutbound out) {
+        Sinks.Many<String> connection = Sinks.many().unicast().onBackpressureBuffer();
+        Set<String> joined = ConcurrentHashMap.newKeySet();
+        Mono<Void> receive = in.aggregateFrames()
+                .receive()
+                .asString()
+                .flatMapIterable(frame -> Arrays.asList(frame.split("\r?\n")))
+                .doOnNext(line -> onLine(line, connection, joined))
+                .then()
+                .doFinally($ -> {
+                    joined.forEach(channel -> part(channel, connection));
+                    connection.emitComplete(RETRY_NON_SERIALIZED);
+                });
+        return Mono.when(receive, out.sendString(connection.asFlux()).then());
+    }
+
+    private void onLine(String line, Sinks.Many<String> connection, Set<String> joined) {
+        int space = line.indexOf(' ');
+        String command = (space < 0 ? line : line.substring(0, space)).toUpperCase(Locale.ROOT);
+        String arg = space < 0 ? "" : line.substring(space + 1);
+        switch (command) {
+            case "NICK":
+                connection.emitNext(":tmi.twitch.tv 001 " + arg + " :Welcome, GLHF!", RETRY_NON_SERIALIZED);
+                break;
+            case "JOIN":
+                String channel = channelName(arg);
+                joined.add(channel);
+                channels.computeIfAbsent(channel, $ -> ConcurrentHashMap.newKeySet()).add(connection);
+                break;
+            case "PART":
+                channel = channelName(arg);
+                joined.remove(channel);
+                part(channel, connection);
+                break;
+            case "PING":
+                connection.emitNext("PONG :tmi.twitch.tv", RETRY_NON_SERIALIZED);
+                break;
+            default:
+                // PASS, CAP and PRIVMSG need no answer
+                break;
+        }
+    }
+
+    private static String channelName(String arg) {
+        return (arg.startsWith("#") ? arg.substring(1) : arg).toLowerCase(Locale.ROOT);
+    }
+
+    private void part(String channel, Sinks.Many<String> connection) {
+        channels.getOrDefault(channel, Collections.emptySet()).remove(connection);
+    }
+
+    /**
+     * @return True once the given amount of connections have joined the channel
+     */
+    boolean isJoined(String channel, int connections) {
+        return channels.getOrDefault(channel, Collections.emptySet()).size() >= connections;
+    }
+
+    /**
+     * Sends a chat message to everyone in a channel.
+     *
+     * @param user
+     *            Which of the fake users sent the message
+     */
+    void send(String channel, int user, String content) {
+        String login = "loadtest_user" + user;
+        String line = "@badge-info=;badges=;color=#1E90FF;display-name=" + login + ";emotes=;first-msg=0;flags=;id=" + ids.incrementAndGet()
+                + ";mod=0;room-id=" + (1000 + Math.floorMod(channel.hashCode(), 1000)) + ";subscriber=0;tmi-sent-ts=" + System.currentTimeMillis()
+                + ";turbo=0;user-id=" + (2000 + user) + ";user-type= :" + login + "!" + login + "@" + login + ".tmi.twitch.tv PRIVMSG #"
+                + channel + " :" + content;
+        for (Sinks.Many<String> connection : channels.getOrDefault(channel, Collections.emptySet())) {
+            connection.emitNext(line, RETRY_NON_SERIALIZED);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        server.disposeNow();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return server.isDisposed();
+    }
+}
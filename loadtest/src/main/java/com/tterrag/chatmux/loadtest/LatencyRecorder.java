@@ -0,0 +1,40 @@
+package com.tterrag.chatmux.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps every recorded latency, so that percentiles are exact.
+ */
+class LatencyRecorder {
+
+    private long[] values = new long[1 << 16];
+    private int count;
+
+    synchronized void record(long nanos) {
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+        }
+        values[count++] = nanos;
+    }
+
+    synchronized int count() {
+        return count;
+    }
+
+    /**
+     * @return The given percentiles, in milliseconds
+     */
+    synchronized double[] percentiles(double... percentiles) {
+        long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        double[] ret = new double[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            if (count > 0) {
+                int index = (int) Math.ceil(percentiles[i] / 100 * count) - 1;
+                ret[i] = (double) sorted[Math.max(index, 0)] / TimeUnit.MILLISECONDS.toNanos(1);
+            }
+        }
+        return ret;
+    }
+}
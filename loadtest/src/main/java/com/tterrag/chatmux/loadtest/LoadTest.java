@@ -0,0 +1,258 @@
+package com.tterrag.chatmux.loadtest;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.electronwill.nightconfig.core.Config;
+import com.electronwill.nightconfig.core.conversion.ObjectConverter;
+import com.tterrag.chatmux.api.bridge.ChatChannel;
+import com.tterrag.chatmux.api.bridge.ChatService;
+import com.tterrag.chatmux.api.config.ServiceConfig;
+import com.tterrag.chatmux.api.config.ServiceData;
+import com.tterrag.chatmux.bridge.ChatChannelImpl;
+import com.tterrag.chatmux.factorio.FactorioClient;
+import com.tterrag.chatmux.factorio.FactorioService;
+import com.tterrag.chatmux.links.JsonBackedLinkManager;
+import com.tterrag.chatmux.logging.PerformanceProfile;
+import com.tterrag.chatmux.twitch.TwitchService;
+import com.tterrag.chatmux.util.Diagnostics;
+import com.tterrag.chatmux.util.metrics.MetricFamily;
+import com.tterrag.chatmux.util.metrics.Metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Runs the bridge against local stand-ins for Twitch, Discord and Factorio, and reports end-to-end latency,
+ * throughput, losses and heap usage.
+ * <p>
+ * Every Twitch channel, and the Factorio global channel, is linked to its own set of webhooks on the Discord stand-in.
+ * Each message carries the time it was sent, and its latency is taken when the stand-in accepts the webhook request.
+ * The Discord gateway is not simulated, so messages going <i>into</i> Discord are measured, but not the other way.
+ * <p>
+ * Run with {@code ./gradlew :loadtest:run --args="--channels=8 --links=4 --rate=500"}, see {@link LoadTestOptions}
+ * for all options.
+ */
+@Slf4j
+public class LoadTest {
+
+    private static final Pattern MARKER = Pattern.compile("lt-([tf])-(\\d+)");
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 100 };
+
+    private final LoadTestOptions options;
+
+    private final LatencyRecorder twitchLatency = new LatencyRecorder();
+    private final LatencyRecorder factorioLatency = new LatencyRecorder();
+
+    private final AtomicLong twitchSent = new AtomicLong();
+    private final AtomicLong factorioSent = new AtomicLong();
+
+    /**
+     * Only messages sent from this time on are counted, so that the warmup is left out.
+     */
+    private volatile long measureFrom = Long.MAX_VALUE;
+
+    private volatile long maxHeapUsed;
+
+    private LoadTest(LoadTestOptions options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadTest(LoadTestOptions.parse(args)).run();
+        System.exit(0);
+    }
+
+    private void run() throws IOException, InterruptedException {
+        log.info("Starting load test with {}", options);
+        PerformanceProfile.install();
+        Diagnostics.setPerformanceProfile(options.isPerformanceProfile());
+
+        Path dir = Files.createTempDirectory("chatmux-loadtest");
+        Path console = dir.resolve("server.out");
+
+        FakeTwitchServer twitchServer = new FakeTwitchServer();
+        FakeDiscordServer discordServer = new FakeDiscordServer(options, this::onDelivered);
+        FactorioLog factorioLog = new FactorioLog(console);
+
+        TwitchService twitch = new TwitchService();
+        Map<String, Object> twitchConfig = new HashMap<>();
+        twitchConfig.put("ircUrl", twitchServer.getUrl());
+        twitchConfig.put("nickSend", "loadtest_send");
+        twitchConfig.put("tokenSend", "loadtest");
+        twitchConfig.put("nickReceive", "loadtest_receive");
+        twitchConfig.put("tokenReceive", "loadtest");
+        twitchConfig.put("fetchAvatars", false);
+        twitchConfig.put("channelsPerConnection", options.getChannelsPerConnection());
+        configure(twitch, twitchConfig);
+
+        FactorioService factorio = new FactorioService();
+        Map<String, Object> factorioConfig = new HashMap<>();
+        factorioConfig.put("input", console.toString());
+        factorioConfig.put("output", dir.resolve("server.fifo").toString());
+        configure(factorio, factorioConfig);
+
+        WebhookService webhooks = new WebhookService(discordServer.getUrl());
+
+        twitch.initialize();
+        factorio.initialize();
+        webhooks.initialize();
+
+        JsonBackedLinkManager manager = new JsonBackedLinkManager(Collections.emptyList());
+        List<Disposable> links = new ArrayList<>();
+        long webhookId = 800000000000000000L;
+        List<String> channels = new ArrayList<>();
+        for (int i = 0; i < options.getChannels(); i++) {
+            String channel = "loadtest" + i;
+            channels.add(channel);
+            ChatChannel<?> from = new ChatChannelImpl<>(channel, twitch);
+            for (int j = 0; j < options.getLinks(); j++) {
+                links.add(manager.connect(from, new ChatChannelImpl<>(Long.toString(webhookId++), webhooks), false));
+            }
+        }
+        if (options.getFactorioRate() > 0) {
+            ChatChannel<?> from = new ChatChannelImpl<>(FactorioClient.GLOBAL_TEAM, factorio);
+            for (int j = 0; j < options.getLinks(); j++) {
+                links.add(manager.connect(from, new ChatChannelImpl<>(Long.toString(webhookId++), webhooks), false));
+            }
+        }
+
+        // Both the sending and receiving connection join each channel
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!channels.stream().allMatch(c -> twitchServer.isJoined(c, 2))) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Twitch connections did not join all channels");
+            }
+            Thread.sleep(50);
+        }
+        log.info("Joined {} channel(s), warming up for {}s", channels.size(), options.getWarmup());
+
+        AtomicLong sequence = new AtomicLong();
+        Pacer twitchLoad = new Pacer("loadtest-twitch", options.getRate(), () -> {
+            long seq = sequence.getAndIncrement();
+            long now = System.nanoTime();
+            if (now >= measureFrom) {
+                twitchSent.incrementAndGet();
+            }
+            twitchServer.send(channels.get((int) (seq % channels.size())), (int) (seq % 50), "lt-t-" + now + " message " + seq + " :)");
+        });
+        Pacer factorioLoad = options.getFactorioRate() <= 0 ? null : new Pacer("loadtest-factorio", options.getFactorioRate(), () -> {
+            long now = System.nanoTime();
+            if (now >= measureFrom) {
+                factorioSent.incrementAndGet();
+            }
+            factorioLog.chat((int) (now % 10), "lt-f-" + now + " hello from the factory");
+        });
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        Scheduler sampler = Schedulers.newSingle("loadtest-heap", true);
+        sampler.schedulePeriodically(() -> maxHeapUsed = Math.max(maxHeapUsed, memory.getHeapMemoryUsage().getUsed()), 0, 100, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(options.getWarmup()));
+        long gcCount = gcCount(), gcTime = gcTime();
+        maxHeapUsed = 0;
+        measureFrom = System.nanoTime();
+        log.info("Measuring for {}s", options.getDuration());
+        Thread.sleep(TimeUnit.SECONDS.toMillis(options.getDuration()));
+        twitchLoad.dispose();
+        if (factorioLoad != null) {
+            factorioLoad.dispose();
+        }
+        long measuredNanos = System.nanoTime() - measureFrom;
+
+        long expected = (twitchSent.get() + factorioSent.get()) * options.getLinks();
+        deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(options.getDrain());
+        while (delivered() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        sampler.dispose();
+
+        report(measuredNanos, expected, gcCount() - gcCount, gcTime() - gcTime, discordServer, memory);
+
+        links.forEach(Disposable::dispose);
+        twitchServer.dispose();
+        discordServer.dispose();
+        factorioLog.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void configure(ChatService<?> service, Map<String, Object> values) {
+        ServiceConfig<ServiceData> config = (ServiceConfig<ServiceData>) service.getConfig();
+        Config cfg = Config.inMemory();
+        values.forEach(cfg::set);
+        config.onLoad(new ObjectConverter().toObject(cfg, config::makeDefault));
+    }
+
+    private void onDelivered(String webhook, String content) {
+        Matcher m = MARKER.matcher(content);
+        if (!m.find()) {
+            return;
+        }
+        long sent = Long.parseLong(m.group(2));
+        if (sent < measureFrom) {
+            return;
+        }
+        ("t".equals(m.group(1)) ? twitchLatency : factorioLatency).record(System.nanoTime() - sent);
+    }
+
+    private long delivered() {
+        return twitchLatency.count() + factorioLatency.count();
+    }
+
+    private void report(long measuredNanos, long expected, long gcCount, long gcTime, FakeDiscordServer discordServer, MemoryMXBean memory) {
+        double seconds = measuredNanos / 1e9;
+        long delivered = delivered();
+        System.out.println();
+        System.out.printf("Load test: %d channel(s) x %d link(s), %.0f msg/s from Twitch, %.0f line(s)/s from Factorio, %dms webhook latency%n",
+                options.getChannels(), options.getLinks(), options.getRate(), options.getFactorioRate(), options.getLatency());
+        System.out.printf("Sent:       %d Twitch message(s), %d Factorio line(s) in %.1fs%n", twitchSent.get(), factorioSent.get(), seconds);
+        System.out.printf("Delivered:  %d of %d (%d lost), %.1f deliveries/s%n", delivered, expected, Math.max(expected - delivered, 0), delivered / seconds);
+        System.out.printf("Dropped:    %.0f from full delivery queues, %.0f coalesced%n", sum("chatmux_delivery_dropped_total"), sum("chatmux_delivery_coalesced_total"));
+        System.out.printf("Failed:     %.0f deliveries%n", sum("chatmux_delivery_failed_total"));
+        System.out.printf("Webhooks:   %d request(s), %d answered with 429%n", discordServer.getRequests(), discordServer.getRateLimited());
+        printLatency("Twitch", twitchLatency);
+        if (options.getFactorioRate() > 0) {
+            printLatency("Factorio", factorioLatency);
+        }
+        System.out.printf("Heap:       %.1fMB max used, %.1fMB used at end, %.1fMB limit%n", mb(maxHeapUsed), mb(memory.getHeapMemoryUsage().getUsed()), mb(memory.getHeapMemoryUsage().getMax()));
+        System.out.printf("GC:         %d collection(s), %dms total%n", gcCount, gcTime);
+    }
+
+    private static void printLatency(String name, LatencyRecorder latency) {
+        double[] p = latency.percentiles(PERCENTILES);
+        System.out.printf("%-11s p50 %.2fms, p90 %.2fms, p99 %.2fms, p999 %.2fms, max %.2fms%n", name + ":", p[0], p[1], p[2], p[3], p[4]);
+    }
+
+    private static double sum(String metric) {
+        MetricFamily<?> family = Metrics.find(metric);
+        return family == null ? 0 : family.sum();
+    }
+
+    private static double mb(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long gcTime() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+}
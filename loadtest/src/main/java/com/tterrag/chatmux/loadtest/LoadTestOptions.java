@@ -0,0 +1,124 @@
+package com.tterrag.chatmux.loadtest;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Command line options, given as {@code --name=value}.
+ */
+@Getter
+@ToString
+class LoadTestOptions {
+
+    /**
+     * Twitch channels to send messages in.
+     */
+    private int channels = 4;
+
+    /**
+     * Webhook targets linked to each source channel.
+     */
+    private int links = 2;
+
+    /**
+     * Twitch channels per chat connection, lower it to spread the channels over several connections.
+     */
+    private int channelsPerConnection = 50;
+
+    /**
+     * Twitch messages per second, spread over all channels.
+     */
+    private double rate = 100;
+
+    /**
+     * Factorio console lines per second. The Factorio global channel is linked like the Twitch channels.
+     */
+    private double factorioRate = 5;
+
+    private int warmup = 10;
+
+    private int duration = 60;
+
+    /**
+     * Seconds to wait for outstanding deliveries after the load stops.
+     */
+    private int drain = 10;
+
+    /**
+     * Milliseconds the Discord stand-in takes to answer a webhook request.
+     */
+    private long latency = 50;
+
+    /**
+     * Requests allowed per webhook per window, like the real webhook limits. 0 means unlimited.
+     */
+    private int webhookLimit;
+
+    private long webhookWindow = 2000;
+
+    /**
+     * Answer every n-th webhook request with a 429, regardless of the limit. 0 means never.
+     */
+    private int rateLimitEvery;
+
+    private boolean performanceProfile = true;
+
+    static LoadTestOptions parse(String[] args) {
+        LoadTestOptions ret = new LoadTestOptions();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            }
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "channels":
+                    ret.channels = Integer.parseInt(value);
+                    break;
+                case "links":
+                    ret.links = Integer.parseInt(value);
+                    break;
+                case "channels-per-connection":
+                    ret.channelsPerConnection = Integer.parseInt(value);
+                    break;
+                case "rate":
+                    ret.rate = Double.parseDouble(value);
+                    break;
+                case "factorio-rate":
+                    ret.factorioRate = Double.parseDouble(value);
+                    break;
+                case "warmup":
+                    ret.warmup = Integer.parseInt(value);
+                    break;
+                case "duration":
+                    ret.duration = Integer.parseInt(value);
+                    break;
+                case "drain":
+                    ret.drain = Integer.parseInt(value);
+                    break;
+                case "latency":
+                    ret.latency = Long.parseLong(value);
+                    break;
+                case "webhook-limit":
+                    ret.webhookLimit = Integer.parseInt(value);
+                    break;
+                case "webhook-window":
+                    ret.webhookWindow = Long.parseLong(value);
+                    break;
+                case "rate-limit-every":
+                    ret.rateLimitEvery = Integer.parseInt(value);
+                    break;
+                case "performance-profile":
+                    ret.performanceProfile = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + name);
+            }
+        }
+        if (ret.channels < 1 || ret.links < 1 || ret.duration < 1) {
+            throw new IllegalArgumentException("channels, links and duration must be at least 1");
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,50 @@
+package com.tterrag.chatmux.loadtest;
+
+import java.util.concurrent.TimeUnit;
+
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Calls an action at a fixed average rate on its own thread. Each tick catches up on everything that is due, so the
+ * rate holds even if a tick runs late.
+ */
+class Pacer implements Disposable {
+
+    private static final long TICK = 10;
+
+    private final double rate;
+    private final Runnable action;
+
+    private final Scheduler scheduler;
+    private final Disposable task;
+
+    private final long start = System.nanoTime();
+    private long done;
+
+    Pacer(String name, double rate, Runnable action) {
+        this.rate = rate;
+        this.action = action;
+        this.scheduler = Schedulers.newSingle(name, true);
+        this.task = scheduler.schedulePeriodically(this::tick, 0, TICK, TimeUnit.MILLISECONDS);
+    }
+
+    private void tick() {
+        long due = (long) ((System.nanoTime() - start) * rate / TimeUnit.SECONDS.toNanos(1));
+        for (; done < due; done++) {
+            action.run();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        task.dispose();
+        scheduler.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return task.isDisposed();
+    }
+}
@@ -0,0 +1,39 @@
+package com.tterrag.chatmux.loadtest;
+
+import com.tterrag.chatmux.api.bridge.ChatService;
+import com.tterrag.chatmux.bridge.AbstractChatMessage;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * A message as posted to the Discord stand-in.
+ */
+class RelayedMessage extends AbstractChatMessage<RelayedMessage> {
+
+    private final String id;
+
+    RelayedMessage(ChatService<RelayedMessage> service, String channel, String user, String content, String id) {
+        super(service, channel, user, content, null);
+        this.id = id;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public Mono<Void> delete() {
+        return Mono.empty();
+    }
+
+    @Override
+    public Mono<Void> kick() {
+        return Mono.empty();
+    }
+
+    @Override
+    public Mono<Void> ban() {
+        return Mono.empty();
+    }
+}
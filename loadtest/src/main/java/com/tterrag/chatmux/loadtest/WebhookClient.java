@@ -0,0 +1,29 @@
+package com.tterrag.chatmux.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tterrag.chatmux.util.http.RequestHelper;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import reactor.core.publisher.Mono;
+
+/**
+ * Executes webhooks the same way {@code DiscordRequestHelper} does, through the shared rate limiter.
+ */
+class WebhookClient extends RequestHelper {
+
+    WebhookClient(String baseUrl) {
+        super(new ObjectMapper(), baseUrl);
+    }
+
+    @Override
+    protected void addHeaders(HttpHeaders headers) {
+        headers.add(HttpHeaderNames.CONTENT_TYPE, "application/json");
+        headers.add(HttpHeaderNames.AUTHORIZATION, "Bot loadtest");
+    }
+
+    Mono<JsonNode> execute(String webhook, String payload) {
+        return post("/webhooks/" + webhook + "/loadtest?wait=true", payload, JsonNode.class);
+    }
+}
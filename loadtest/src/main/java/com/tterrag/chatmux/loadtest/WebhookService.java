@@ -0,0 +1,29 @@
+package com.tterrag.chatmux.loadtest;
+
+import com.tterrag.chatmux.api.config.ServiceConfig;
+import com.tterrag.chatmux.bridge.AbstractChatService;
+
+import reactor.util.annotation.Nullable;
+
+/**
+ * Link target for the Discord stand-in. Channel names are webhook IDs.
+ */
+class WebhookService extends AbstractChatService<RelayedMessage, WebhookSource> {
+
+    private final WebhookClient client;
+
+    WebhookService(String apiUrl) {
+        super("webhook");
+        this.client = new WebhookClient(apiUrl);
+    }
+
+    @Override
+    protected WebhookSource createSource() {
+        return new WebhookSource(this, client);
+    }
+
+    @Override
+    public @Nullable ServiceConfig<?> getConfig() {
+        return null;
+    }
+}
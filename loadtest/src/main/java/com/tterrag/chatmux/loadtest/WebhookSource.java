@@ -0,0 +1,41 @@
+package com.tterrag.chatmux.loadtest;
+
+import com.tterrag.chatmux.api.bridge.ChatMessage;
+import com.tterrag.chatmux.api.bridge.ChatSource;
+import com.tterrag.chatmux.discord.util.WebhookMessage;
+
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Sends to the Discord stand-in with the same webhook payload as {@code DiscordSource}. Nothing is ever received, the
+ * stand-in has no gateway.
+ */
+@RequiredArgsConstructor
+class WebhookSource implements ChatSource<RelayedMessage> {
+
+    private final WebhookService service;
+
+    private final WebhookClient client;
+
+    @Override
+    public WebhookService getType() {
+        return service;
+    }
+
+    @Override
+    public Flux<RelayedMessage> connect(String channel) {
+        return Flux.never();
+    }
+
+    @Override
+    public Mono<RelayedMessage> send(String channel, ChatMessage<?> m, boolean raw) {
+        String username = m.getUser() + " (" + m.getService() + "/" + m.getChannel() + ")";
+        return client.execute(channel, new WebhookMessage(m.getContent(), username, m.getAvatar()).toString())
+                .map(r -> new RelayedMessage(service, channel, username, m.getContent(), r.path("id").asText()));
+    }
+
+    @Override
+    public void disconnect(String channel) {}
+}
@@ -0,0 +1,152 @@
+package com.tterrag.chatmux.twitch;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.google.common.hash.Hashing;
+import com.tterrag.chatmux.twitch.irc.IRCEvent;
+import com.tterrag.chatmux.twitch.irc.IRCEvent.Message.Tag;
+import com.tterrag.chatmux.util.metrics.Metrics;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Recognizes our own messages when the receiving connection sees them come back, so they are not relayed again.
+ * <p>
+ * Every message is sent with a {@code client-nonce} tag, which Twitch passes on to everyone in the channel. Should an
+ * echo come back without it, it is matched by its content instead, but only if it came from the account we send with.
+ * <p>
+ * Sent messages are kept in the order they were sent, for at most {@value #TTL}ms and up to {@value #MAX_SIZE} of
+ * them, so expiring the oldest is a constant time operation. Content is only kept as a 64 bit hash.
+ */
+class EchoFilter {
+
+    private static final long TTL = 30_000;
+    private static final int MAX_SIZE = 4096;
+
+    @RequiredArgsConstructor
+    private static final class Sent {
+
+        final String nonce;
+        final long fingerprint;
+        final long sentAt;
+
+        boolean echoed;
+    }
+
+    private final String sender;
+
+    // Prefixed to a counter, so that nonces are unique without needing much randomness per message
+    private final String noncePrefix = Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE) + "-";
+    private long nextNonce;
+
+    private final Deque<Sent> order = new ArrayDeque<>();
+    private final Map<String, Sent> byNonce = new HashMap<>();
+    // Sent messages with the same content, oldest first
+    private final Map<Long, Deque<Sent>> byFingerprint = new HashMap<>();
+
+    private long suppressed, expired;
+
+    /**
+     * @param sender
+     *            The login of the account messages are sent with
+     */
+    EchoFilter(String sender) {
+        this.sender = sender.toLowerCase(Locale.ROOT);
+
+        Metrics.gauge("chatmux_twitch_echoes_pending", "Sent Twitch messages waiting to be seen by the receiving connection").register(this::size);
+        Metrics.counterCallback("chatmux_twitch_echoes_suppressed_total", "Received Twitch messages recognized as our own").register(this::getSuppressed);
+        Metrics.counterCallback("chatmux_twitch_echoes_expired_total", "Sent Twitch messages which the receiving connection never saw").register(this::getExpired);
+    }
+
+    /**
+     * Records a message which is about to be sent.
+     *
+     * @return The nonce to send it with
+     */
+    synchronized String sent(String content) {
+        long now = System.currentTimeMillis();
+        Sent sent = new Sent(noncePrefix + Long.toHexString(nextNonce++), fingerprint(content), now);
+        order.add(sent);
+        byNonce.put(sent.nonce, sent);
+        byFingerprint.computeIfAbsent(sent.fingerprint, $ -> new ArrayDeque<>(1)).add(sent);
+        expire(now);
+        return sent.nonce;
+    }
+
+    /**
+     * Checks whether a received message is the echo of one we sent, and forgets the sent message if so.
+     */
+    synchronized boolean isEcho(IRCEvent.Message message) {
+        expire(System.currentTimeMillis());
+        if (order.isEmpty()) {
+            return false;
+        }
+        Sent sent = null;
+        String nonce = message.getTag(Tag.CLIENT_NONCE, "");
+        if (!nonce.isEmpty()) {
+            sent = byNonce.get(nonce);
+        } else if (sender.equalsIgnoreCase(message.getUser())) {
+            Deque<Sent> same = byFingerprint.get(fingerprint(message.getContent()));
+            if (same != null) {
+                for (Sent s : same) {
+                    if (!s.echoed) {
+                        sent = s;
+                        break;
+                    }
+                }
+            }
+        }
+        if (sent == null || sent.echoed) {
+            return false;
+        }
+        sent.echoed = true;
+        byNonce.remove(sent.nonce);
+        suppressed++;
+        return true;
+    }
+
+    private void expire(long now) {
+        Sent oldest;
+        while ((oldest = order.peek()) != null && (oldest.sentAt + TTL <= now || order.size() > MAX_SIZE)) {
+            order.poll();
+            byNonce.remove(oldest.nonce);
+            Deque<Sent> same = byFingerprint.get(oldest.fingerprint);
+            // Messages with the same content were sent in order, so this is always the first one
+            same.poll();
+            if (same.isEmpty()) {
+                byFingerprint.remove(oldest.fingerprint);
+            }
+            if (!oldest.echoed) {
+                expired++;
+            }
+        }
+    }
+
+    private static long fingerprint(String content) {
+        return Hashing.murmur3_128().hashString(content, StandardCharsets.UTF_8).asLong();
+    }
+
+    synchronized int size() {
+        return order.size();
+    }
+
+    /**
+     * @return The total amount of received messages recognized as our own
+     */
+    synchronized long getSuppressed() {
+        return suppressed;
+    }
+
+    /**
+     * @return The total amount of sent messages which never came back
+     */
+    synchronized long getExpired() {
+        return expired;
+    }
+}
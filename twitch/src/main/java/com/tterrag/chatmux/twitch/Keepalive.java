@@ -0,0 +1,93 @@
+package com.tterrag.chatmux.twitch;
+
+import java.time.Duration;
+
+import com.tterrag.chatmux.twitch.irc.IRCEvent;
+import com.tterrag.chatmux.util.metrics.Counter;
+import com.tterrag.chatmux.util.metrics.Histogram;
+import com.tterrag.chatmux.util.metrics.Metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.util.annotation.Nullable;
+
+/**
+ * Keeps one Twitch chat connection alive. PINGs from the server are answered, and the connection is PINGed in turn
+ * every so often to measure the round trip. If nothing at all has been received for too long, the connection is
+ * assumed to be dead without having been closed, and is dropped so that it reconnects.
+ */
+@Slf4j
+class Keepalive implements Disposable {
+
+    private static final Histogram ROUND_TRIP = Metrics.histogram("chatmux_twitch_ping_seconds", "Time from sending a PING to a Twitch chat connection until the PONG", "connection");
+    private static final Counter STALLS = Metrics.counter("chatmux_twitch_stalls_total", "Twitch chat connections dropped because nothing was received for too long", "connection");
+
+    private final TwitchConnection connection;
+    private final long stallTimeout;
+
+    private final Histogram.Child roundTrip;
+    private final Counter.Child stalls;
+
+    @Nullable
+    private String pending;
+    private long pendingSince;
+
+    private final Disposable.Composite subscriptions = Disposables.composite();
+
+    Keepalive(TwitchConnection connection, Duration interval, Duration stallTimeout) {
+        this.connection = connection;
+        this.stallTimeout = stallTimeout.toMillis();
+        this.roundTrip = ROUND_TRIP.labels(connection.getName());
+        this.stalls = STALLS.labels(connection.getName());
+
+        subscriptions.add(connection.getClient().inbound().subscribe(this::onEvent));
+        subscriptions.add(Flux.interval(interval, interval).subscribe($ -> tick()));
+    }
+
+    private void onEvent(IRCEvent event) {
+        if (event instanceof IRCEvent.Ping) {
+            connection.send("PONG :tmi.twitch.tv");
+        } else if (event instanceof IRCEvent.Pong) {
+            String token = ((IRCEvent.Pong) event).getToken();
+            synchronized (this) {
+                if (token.equals(pending)) {
+                    roundTrip.observeNanos(System.nanoTime() - pendingSince);
+                    pending = null;
+                }
+            }
+        }
+    }
+
+    private void tick() {
+        if (!connection.getClient().isConnected()) {
+            // Reconnecting already
+            return;
+        }
+        long silence = System.currentTimeMillis() - connection.getLastReceivedAt();
+        if (silence >= stallTimeout) {
+            log.warn("Nothing received on Twitch websocket {} for {}ms, reconnecting", connection.getName(), silence);
+            stalls.inc();
+            connection.getClient().reconnect();
+            return;
+        }
+        String token;
+        synchronized (this) {
+            pendingSince = System.nanoTime();
+            // A PING which was not answered before the next one is simply forgotten, the silence covers it
+            token = pending = Long.toHexString(pendingSince);
+        }
+        connection.send("PING :" + token);
+    }
+
+    @Override
+    public void dispose() {
+        subscriptions.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return subscriptions.isDisposed();
+    }
+}
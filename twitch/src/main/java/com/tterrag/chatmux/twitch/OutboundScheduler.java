@@ -0,0 +1,387 @@
+package com.tterrag.chatmux.twitch;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.tterrag.chatmux.util.metrics.Callback;
+import com.tterrag.chatmux.util.metrics.Histogram;
+import com.tterrag.chatmux.util.metrics.Metrics;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.annotation.Nullable;
+
+/**
+ * Sends messages and JOINs for one Twitch account no faster than Twitch allows, over the connections of its pool. Lines over the limit are
+ * dropped by Twitch without notice, and going over it repeatedly gets the account muted for a while.
+ * <p>
+ * The account may send {@link TwitchData#getMessageLimit() messageLimit} messages per {@value #MESSAGE_WINDOW}ms to
+ * channels it does not moderate, and at most one per {@value #CHANNEL_DELAY}ms to each of those. Messages to channels
+ * it moderates count against the higher {@link TwitchData#getModeratorMessageLimit() moderatorMessageLimit} instead,
+ * which all messages share. JOINs are limited to {@link TwitchData#getJoinLimit() joinLimit} per {@value #JOIN_WINDOW}ms.
+ * Twitch says whether the account is a moderator with the USERSTATE it sends after joining and after every message.
+ * <p>
+ * Messages to a channel are sent in the order they were queued, and a channel which has to wait does not hold up the
+ * others. With {@link TwitchData#isPackMessages() packing} enabled, messages waiting for the same channel go out as one,
+ * up to {@value #MAX_LENGTH} characters. Chat commands are never packed.
+ * <p>
+ * Nothing is sent over a connection while it is down, so that lines are not sent ahead of the JOINs replayed once it is
+ * back.
+ */
+@Slf4j
+class OutboundScheduler implements Disposable {
+
+    private static final long MESSAGE_WINDOW = 30_000;
+    private static final long JOIN_WINDOW = 10_000;
+    private static final long CHANNEL_DELAY = 1_000;
+    private static final long DISCONNECTED_POLL = 500;
+
+    private static final int MAX_LENGTH = 500;
+    private static final int MAX_BACKLOG = 1_000;
+    private static final String SEPARATOR = " | ";
+
+    private static final Histogram DELAY = Metrics.histogram("chatmux_twitch_outbound_delay_seconds", "Time Twitch messages waited to be sent", "connection");
+    private static final Callback BACKLOG = Metrics.gauge("chatmux_twitch_outbound_backlog", "Twitch messages waiting to be sent", "connection");
+    private static final Callback JOINS_WAITING = Metrics.gauge("chatmux_twitch_outbound_joins_waiting", "Twitch JOINs waiting to be sent", "connection");
+    private static final Callback SENT = Metrics.counterCallback("chatmux_twitch_outbound_sent_total", "PRIVMSG lines sent to Twitch", "connection");
+    private static final Callback PACKED = Metrics.counterCallback("chatmux_twitch_outbound_packed_total", "Twitch messages sent as part of a line with others", "connection");
+    private static final Callback DROPPED = Metrics.counterCallback("chatmux_twitch_outbound_dropped_total", "Twitch messages rejected because too many were waiting", "connection");
+
+    /**
+     * Allows a number of sends within any window of time. A token is only given back a full window after it was taken,
+     * so unlike a bucket which is refilled at a steady rate, it never allows a burst on top of a full window.
+     */
+    static final class TokenBucket {
+
+        private final long window;
+        private final long[] taken;
+        private int oldest;
+
+        TokenBucket(int capacity, long window) {
+            this.window = window;
+            this.taken = new long[Math.max(capacity, 1)];
+            Arrays.fill(taken, Long.MIN_VALUE / 2);
+        }
+
+        long availableAt() {
+            return taken[oldest] + window;
+        }
+
+        void take(long now) {
+            taken[oldest] = now;
+            oldest = (oldest + 1) % taken.length;
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class Pending {
+
+        final long seq;
+        final String content;
+        final long queuedAt;
+        /**
+         * Whether this is a chat command such as {@code /ban}, which only works at the start of a message and so is
+         * never packed.
+         */
+        final boolean command;
+    }
+
+    private static final class Channel {
+
+        final Deque<Pending> queue = new ArrayDeque<>();
+        boolean moderator;
+        boolean joining;
+        /**
+         * Parted, and to be released from its connection once its queue is empty.
+         */
+        boolean parting;
+        long nextSendAt;
+    }
+
+    private final TwitchConnectionPool connections;
+    @Nullable
+    private final EchoFilter echoes;
+    private final boolean pack;
+
+    private final TokenBucket messages, regularMessages, joins;
+
+    private final Map<String, Channel> channels = new HashMap<>();
+    private final Deque<String> joinQueue = new ArrayDeque<>();
+    private final Set<String> joined = new HashSet<>();
+    private long seq;
+
+    private final Scheduler scheduler;
+    @Nullable
+    private Disposable wakeup;
+
+    private final Histogram.Child delay;
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final AtomicLong sentLines = new AtomicLong(), packed = new AtomicLong(), dropped = new AtomicLong();
+    private final Disposable.Composite metrics = Disposables.composite();
+
+    private volatile boolean disposed;
+
+    /**
+     * @param echoes
+     *            Where to record each PRIVMSG as it is sent, which may be several messages packed together
+     */
+    OutboundScheduler(TwitchConnectionPool connections, TwitchData data, @Nullable EchoFilter echoes) {
+        String name = connections.getName();
+        this.connections = connections;
+        this.echoes = echoes;
+        this.pack = data.isPackMessages();
+        this.messages = new TokenBucket(Math.max(data.getModeratorMessageLimit(), data.getMessageLimit()), MESSAGE_WINDOW);
+        this.regularMessages = new TokenBucket(data.getMessageLimit(), MESSAGE_WINDOW);
+        this.joins = new TokenBucket(data.getJoinLimit(), JOIN_WINDOW);
+        this.scheduler = Schedulers.newSingle("Twitch " + name + " outbound", true);
+        connections.setOnReconnect(this::rejoin);
+
+        this.delay = DELAY.labels(name);
+        metrics.add(BACKLOG.register(backlog::get, name));
+        metrics.add(JOINS_WAITING.register(this::joinsWaiting, name));
+        metrics.add(SENT.register(sentLines::get, name));
+        metrics.add(PACKED.register(packed::get, name));
+        metrics.add(DROPPED.register(dropped::get, name));
+    }
+
+    /**
+     * Queues a JOIN, unless the channel is already joined or about to be.
+     */
+    synchronized void join(String channel) {
+        if (joined.contains(channel) || joinQueue.contains(channel)) {
+            return;
+        }
+        joinQueue.add(channel);
+        Channel state = channel(channel);
+        state.joining = true;
+        state.parting = false;
+        scheduler.schedule(this::drain);
+    }
+
+    /**
+     * Sends a PART right away, cancelling the JOIN if it has not been sent yet. Messages already queued for the channel
+     * are still sent, after which the channel is released from its connection.
+     */
+    synchronized void part(String channel) {
+        joinQueue.remove(channel);
+        joined.remove(channel);
+        connections.get(channel).send("PART #" + channel);
+        Channel state = channels.get(channel);
+        if (state == null || state.queue.isEmpty()) {
+            release(channel);
+        } else {
+            state.joining = false;
+            state.parting = true;
+            scheduler.schedule(this::drain);
+        }
+    }
+
+    private void release(String channel) {
+        channels.remove(channel);
+        connections.release(channel);
+    }
+
+    /**
+     * Queues a message.
+     *
+     * @return False if too many messages are waiting already, in which case the message is dropped
+     */
+    boolean privmsg(String channel, String content) {
+        return queue(channel, content, false);
+    }
+
+    /**
+     * Queues a chat command, such as {@code /ban user}. Commands count against the same limits as messages.
+     *
+     * @return False if too many messages are waiting already, in which case the command is dropped
+     */
+    boolean command(String channel, String command) {
+        return queue(channel, command, true);
+    }
+
+    private synchronized boolean queue(String channel, String content, boolean command) {
+        if (disposed || backlog.get() >= MAX_BACKLOG) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        channel(channel).queue.add(new Pending(seq++, content, System.nanoTime(), command));
+        backlog.incrementAndGet();
+        scheduler.schedule(this::drain);
+        return true;
+    }
+
+    /**
+     * Joins the channels of a connection again after it was reconnected. As many JOINs as the limit allows are sent right
+     * away, the rest are queued, holding back messages to those channels until they are sent.
+     *
+     * @param send
+     *            Sends a line ahead of anything sent while the connection was down
+     */
+    synchronized void rejoin(TwitchConnection connection, Consumer<String> send) {
+        long now = System.currentTimeMillis();
+        for (String channel : connection.getChannels()) {
+            if (!joined.contains(channel)) {
+                continue;
+            }
+            if (joins.availableAt() <= now) {
+                joins.take(now);
+                send.accept("JOIN #" + channel);
+            } else {
+                joined.remove(channel);
+                joinQueue.add(channel);
+                channel(channel).joining = true;
+            }
+        }
+        scheduler.schedule(this::drain);
+    }
+
+    synchronized void setModerator(String channel, boolean moderator) {
+        Channel state = channel(channel);
+        if (state.moderator != moderator) {
+            log.info("{} a moderator in #{}", moderator ? "Now" : "No longer", channel);
+            state.moderator = moderator;
+            scheduler.schedule(this::drain);
+        }
+    }
+
+    private Channel channel(String name) {
+        return channels.computeIfAbsent(name, $ -> new Channel());
+    }
+
+    private synchronized int joinsWaiting() {
+        return joinQueue.size();
+    }
+
+    private synchronized void drain() {
+        if (disposed) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Iterator<String> it = joinQueue.iterator(); it.hasNext() && joins.availableAt() <= now;) {
+            String channel = it.next();
+            TwitchConnection connection = connections.get(channel);
+            if (!connection.getClient().isConnected()) {
+                continue;
+            }
+            it.remove();
+            joins.take(now);
+            joined.add(channel);
+            channel(channel).joining = false;
+            connection.send("JOIN #" + channel);
+        }
+        Map.Entry<String, Channel> next;
+        while ((next = nextReady(now)) != null) {
+            Channel channel = next.getValue();
+            messages.take(now);
+            if (!channel.moderator) {
+                regularMessages.take(now);
+                channel.nextSendAt = now + CHANNEL_DELAY;
+            }
+            String content = take(channel.queue);
+            String tags = echoes == null ? "" : "@client-nonce=" + echoes.sent(content) + " ";
+            sentLines.incrementAndGet();
+            connections.get(next.getKey()).send(tags + "PRIVMSG #" + next.getKey() + " :" + content);
+            if (channel.parting && channel.queue.isEmpty()) {
+                release(next.getKey());
+            }
+        }
+        scheduleWakeup(now);
+    }
+
+    /**
+     * Finds the channel whose first message was queued the earliest, out of those which can be sent to right now.
+     */
+    @Nullable
+    private Map.Entry<String, Channel> nextReady(long now) {
+        Map.Entry<String, Channel> ret = null;
+        for (Map.Entry<String, Channel> e : channels.entrySet()) {
+            Pending first = e.getValue().queue.peek();
+            if (first != null && readyAt(e.getKey(), e.getValue(), now) <= now && (ret == null || first.seq < ret.getValue().queue.getFirst().seq)) {
+                ret = e;
+            }
+        }
+        return ret;
+    }
+
+    private long readyAt(String name, Channel channel, long now) {
+        if (channel.joining) {
+            return Long.MAX_VALUE;
+        }
+        long ret = Math.max(channel.nextSendAt, messages.availableAt());
+        ret = Math.max(ret, connectedAt(name, now));
+        return channel.moderator ? ret : Math.max(ret, regularMessages.availableAt());
+    }
+
+    /**
+     * @return Now if the connection of the channel is up, otherwise when to check again
+     */
+    private long connectedAt(String channel, long now) {
+        return connections.get(channel).getClient().isConnected() ? now : now + DISCONNECTED_POLL;
+    }
+
+    /**
+     * Takes the next message off the queue, along with as many after it as fit if packing is enabled.
+     */
+    private String take(Deque<Pending> queue) {
+        Pending first = queue.poll();
+        long now = System.nanoTime();
+        delay.observeNanos(now - first.queuedAt);
+        backlog.decrementAndGet();
+        if (!pack || first.command || queue.isEmpty()) {
+            return first.content;
+        }
+        StringBuilder content = new StringBuilder(first.content);
+        Pending next;
+        while ((next = queue.peek()) != null && !next.command && content.length() + SEPARATOR.length() + next.content.length() <= MAX_LENGTH) {
+            queue.poll();
+            delay.observeNanos(now - next.queuedAt);
+            backlog.decrementAndGet();
+            packed.incrementAndGet();
+            content.append(SEPARATOR).append(next.content);
+        }
+        return content.toString();
+    }
+
+    private void scheduleWakeup(long now) {
+        long next = Long.MAX_VALUE;
+        for (String channel : joinQueue) {
+            next = Math.min(next, Math.max(joins.availableAt(), connectedAt(channel, now)));
+        }
+        for (Map.Entry<String, Channel> e : channels.entrySet()) {
+            if (!e.getValue().queue.isEmpty()) {
+                next = Math.min(next, readyAt(e.getKey(), e.getValue(), now));
+            }
+        }
+        Disposable wakeup = this.wakeup;
+        if (wakeup != null) {
+            wakeup.dispose();
+        }
+        this.wakeup = next == Long.MAX_VALUE ? null : scheduler.schedule(this::drain, next - now, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        metrics.dispose();
+        scheduler.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposed;
+    }
+}
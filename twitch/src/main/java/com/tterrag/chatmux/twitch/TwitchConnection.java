@@ -0,0 +1,93 @@
+package com.tterrag.chatmux.twitch;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.tterrag.chatmux.twitch.irc.IRCEvent;
+import com.tterrag.chatmux.twitch.irc.IRCFrameDecoder;
+import com.tterrag.chatmux.util.metrics.Callback;
+import com.tterrag.chatmux.util.metrics.Metrics;
+import com.tterrag.chatmux.websocket.SimpleFrameParser;
+import com.tterrag.chatmux.websocket.SimpleWebSocketClient;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * One IRC connection to Twitch chat, logged in as one account, along with the channels assigned to it.
+ */
+@Slf4j
+class TwitchConnection {
+
+    private static final Callback UP = Metrics.gauge("chatmux_twitch_connection_up", "Whether a Twitch chat connection is open", "connection");
+    private static final Callback CHANNELS = Metrics.gauge("chatmux_twitch_connection_channels", "Twitch channels assigned to a chat connection", "connection");
+    private static final Callback IDLE = Metrics.gauge("chatmux_twitch_connection_idle_seconds", "Time since a Twitch chat connection last received anything", "connection");
+    private static final Callback RECEIVED = Metrics.counterCallback("chatmux_twitch_connection_received_total", "Lines received on a Twitch chat connection", "connection");
+    private static final Callback SENT = Metrics.counterCallback("chatmux_twitch_connection_sent_total", "Lines sent on a Twitch chat connection", "connection");
+
+    @Getter
+    private final String name;
+
+    @Getter
+    private final SimpleWebSocketClient<IRCEvent, String> client = new SimpleWebSocketClient<>();
+
+    @Getter
+    private final Set<String> channels = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong received = new AtomicLong(), sent = new AtomicLong();
+    @Getter
+    private volatile long lastReceivedAt = System.currentTimeMillis();
+
+    private final Keepalive keepalive;
+
+    /**
+     * Opens the connection and logs in, and does so again whenever the connection is lost.
+     *
+     * @param reconnected
+     *            Called after logging in again, to restore the channels joined on the connection. Lines given to the
+     *            consumer are sent ahead of anything sent while the connection was down.
+     */
+    TwitchConnection(String name, TwitchData data, String nick, String token, BiConsumer<TwitchConnection, Consumer<String>> reconnected) {
+        this.name = name;
+
+        UP.register(() -> client.isConnected() ? 1 : 0, name);
+        CHANNELS.register(channels::size, name);
+        IDLE.register(() -> (System.currentTimeMillis() - lastReceivedAt) / 1000.0, name);
+        RECEIVED.register(received::get, name);
+        SENT.register(sent::get, name);
+
+        client.inbound().subscribe(e -> {
+            received.incrementAndGet();
+            lastReceivedAt = System.currentTimeMillis();
+        });
+        client.connect(data.getIrcUrl(), () -> new SimpleFrameParser<>(new IRCFrameDecoder(), Function.identity()), (send, reconnect) -> {
+                    Consumer<String> counted = line -> {
+                        sent.incrementAndGet();
+                        send.accept(line);
+                    };
+                    counted.accept("PASS oauth:" + token);
+                    counted.accept("NICK " + nick);
+                    counted.accept("CAP REQ :twitch.tv/tags");
+                    counted.accept("CAP REQ :twitch.tv/commands");
+                    // Silence from before the connection was lost does not count against the new one
+                    lastReceivedAt = System.currentTimeMillis();
+                    if (reconnect) {
+                        log.info("Twitch websocket {} reconnected, joining {} channel(s) again", name, channels.size());
+                        reconnected.accept(this, counted);
+                    }
+                })
+            .subscribe($ -> {}, t -> log.error("Twitch websocket {} completed with error", name, t), () -> log.error("Twitch websocket {} completed", name));
+
+        this.keepalive = new Keepalive(this, Duration.ofSeconds(Math.max(data.getKeepaliveInterval(), 1)), Duration.ofSeconds(Math.max(data.getStallTimeout(), 1)));
+    }
+
+    void send(String line) {
+        sent.incrementAndGet();
+        client.outbound().next(line);
+    }
+}
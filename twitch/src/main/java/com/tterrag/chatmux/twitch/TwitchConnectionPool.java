@@ -0,0 +1,96 @@
+package com.tterrag.chatmux.twitch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+/**
+ * Spreads Twitch channels over several connections logged in as the same account.
+ * <p>
+ * Connections are opened as they are needed. A channel is assigned to the connection with the fewest channels the
+ * first time it is used, unless all of them are at {@link TwitchData#getChannelsPerConnection() channelsPerConnection}
+ * already, in which case another connection is opened, up to the given maximum. A channel stays on its connection
+ * until it is released, so that its lines are always sent and received in order.
+ */
+@Slf4j
+class TwitchConnectionPool {
+
+    @Getter
+    private final String name;
+    private final TwitchData data;
+    private final String nick, token;
+    private final int maxConnections;
+    private final int channelsPerConnection;
+
+    private final List<TwitchConnection> connections = new ArrayList<>();
+    private final Map<String, TwitchConnection> assignments = new HashMap<>();
+
+    private final Sinks.Many<TwitchConnection> opened = Sinks.many().replay().all();
+
+    @Setter
+    private volatile BiConsumer<TwitchConnection, Consumer<String>> onReconnect = ($, $$) -> {};
+
+    static TwitchConnectionPool send(TwitchData data) {
+        return new TwitchConnectionPool("send", data, data.getNickSend(), data.getTokenSend(), data.getSendConnections());
+    }
+
+    static TwitchConnectionPool receive(TwitchData data) {
+        return new TwitchConnectionPool("receive", data, data.getNickReceive(), data.getTokenReceive(), data.getReceiveConnections());
+    }
+
+    private TwitchConnectionPool(String name, TwitchData data, String nick, String token, int maxConnections) {
+        this.name = name;
+        this.data = data;
+        this.nick = nick;
+        this.token = token;
+        this.maxConnections = Math.max(maxConnections, 1);
+        this.channelsPerConnection = Math.max(data.getChannelsPerConnection(), 1);
+    }
+
+    /**
+     * Gets the connection of a channel, assigning it to one first if needed.
+     */
+    synchronized TwitchConnection get(String channel) {
+        TwitchConnection ret = assignments.get(channel);
+        if (ret != null) {
+            return ret;
+        }
+        ret = connections.stream().min(Comparator.comparingInt(c -> c.getChannels().size())).orElse(null);
+        if (ret == null || (ret.getChannels().size() >= channelsPerConnection && connections.size() < maxConnections)) {
+            ret = new TwitchConnection(name + "-" + connections.size(), data, nick, token, (c, send) -> onReconnect.accept(c, send));
+            log.info("Opened Twitch {} connection {} of at most {}", name, connections.size() + 1, maxConnections);
+            connections.add(ret);
+            opened.tryEmitNext(ret).orThrow();
+        }
+        ret.getChannels().add(channel);
+        assignments.put(channel, ret);
+        return ret;
+    }
+
+    /**
+     * Unassigns a channel, so that it may be put on a different connection the next time it is used.
+     */
+    synchronized void release(String channel) {
+        TwitchConnection connection = assignments.remove(channel);
+        if (connection != null) {
+            connection.getChannels().remove(channel);
+        }
+    }
+
+    /**
+     * @return Every connection of this pool, including those opened later
+     */
+    Flux<TwitchConnection> connections() {
+        return opened.asFlux();
+    }
+}
@@ -1,14 +1,18 @@
 package com.tterrag.chatmux.twitch;
 
+import com.electronwill.nightconfig.core.conversion.PreserveNotNull;
 import com.tterrag.chatmux.api.config.ServiceData;
 
+import lombok.AccessLevel;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.ToString;
 
 @EqualsAndHashCode
 @ToString
 @Getter
+@Setter(AccessLevel.PACKAGE) // Only for tests, the config is loaded through the fields
 public class TwitchData implements ServiceData {
     
     private String tokenSend = "YOUR_TOKEN_HERE";
@@ -19,4 +23,63 @@ public class TwitchData implements ServiceData {
     
     private String nickReceive = "Broadcaster";
     
+    /**
+     * Whether to look up avatars of Twitch users through Helix. Everything else comes from the IRC tags.
+     */
+    @PreserveNotNull
+    private boolean fetchAvatars = true;
+    
+    /**
+     * The chat websocket and Helix API to connect to. There is no need to change these, except to test against a
+     * local stand-in.
+     */
+    @PreserveNotNull
+    private String ircUrl = "wss://irc-ws.chat.twitch.tv:443";
+    
+    @PreserveNotNull
+    private String helixUrl = "https://api.twitch.tv/helix";
+    
+    /**
+     * How many messages Twitch accepts from the send account in 30 seconds, in channels it does and does not
+     * moderate, and how many JOINs in 10 seconds. These only need raising for accounts Twitch has granted higher limits.
+     */
+    @PreserveNotNull
+    private int messageLimit = 20;
+    
+    @PreserveNotNull
+    private int moderatorMessageLimit = 100;
+    
+    @PreserveNotNull
+    private int joinLimit = 20;
+    
+    /**
+     * How many chat connections to spread channels over at most, for receiving and for sending, and how many channels
+     * to put on one connection before opening another.
+     */
+    @PreserveNotNull
+    private int receiveConnections = 4;
+    
+    @PreserveNotNull
+    private int sendConnections = 2;
+    
+    @PreserveNotNull
+    private int channelsPerConnection = 50;
+    
+    /**
+     * How often to PING each chat connection, and after how long without hearing anything a connection is considered
+     * dead and reconnected, in seconds.
+     */
+    @PreserveNotNull
+    private int keepaliveInterval = 15;
+    
+    @PreserveNotNull
+    private int stallTimeout = 30;
+    
+    /**
+     * Whether to send messages which are waiting for the same Twitch channel as a single message, so that a busy
+     * channel bridged into Twitch falls behind less.
+     */
+    @PreserveNotNull
+    private boolean packMessages = false;
+    
 }
\ No newline at end of file
@@ -1,40 +1,85 @@
 package com.tterrag.chatmux.twitch;
 
+import java.util.Locale;
 import java.util.Objects;
 
-import com.tterrag.chatmux.api.websocket.WebSocketClient;
 import com.tterrag.chatmux.bridge.AbstractChatMessage;
 import com.tterrag.chatmux.twitch.irc.IRCEvent;
+import com.tterrag.chatmux.twitch.irc.IRCEvent.Message.Tag;
 
 import reactor.core.publisher.Mono;
+import reactor.util.annotation.Nullable;
 
 public class TwitchMessage extends AbstractChatMessage<TwitchMessage> {
     
-    private final WebSocketClient<?, String> client;
+    private final OutboundScheduler commands;
     private final IRCEvent.Message message;
+    @Nullable
+    private final TwitchUserCache users;
 
-    public TwitchMessage(WebSocketClient<?, String> client, IRCEvent.Message message, String channelName, String displayname, String avatar) {
+    /**
+     * @param commands
+     *            Where to queue moderation commands for the channel, so that they count against the rate limit of the
+     *            account they are sent as
+     */
+    TwitchMessage(OutboundScheduler commands, IRCEvent.Message message, String channelName, String displayname, @Nullable String avatar) {
         super(TwitchService.getInstance(), channelName, displayname, message.getContent(), avatar);
-        this.client = client;
+        this.commands = commands;
         this.message = message;
+        this.users = null;
+    }
+    
+    /**
+     * Creates a message from the IRC tags sent along with it, so no Helix lookups are needed. The avatar is only
+     * available if the author is already in the given cache.
+     */
+    TwitchMessage(OutboundScheduler commands, IRCEvent.Message message, @Nullable TwitchUserCache users) {
+        super(TwitchService.getInstance(), 
+                message.getChannel(), message.getTag(Tag.ROOM_ID, message.getChannel()),
+                message.getTag(Tag.DISPLAY_NAME, message.getUser()), message.getTag(Tag.USER_ID, message.getUser()),
+                message.getContent(), null);
+        this.commands = commands;
+        this.message = message;
+        this.users = users;
+    }
+    
+    @Override
+    @Nullable
+    public String getAvatar() {
+        String avatar = super.getAvatar();
+        if (avatar == null && users != null) {
+            return users.getIfPresent(message.getUser()).map(u -> u.avatarUrl).orElse(null);
+        }
+        return avatar;
     }
 
+    @Override
+    @Nullable
+    public String getId() {
+        String id = message.getTag(Tag.ID, "");
+        return id.isEmpty() ? null : id;
+    }
+    
     @Override
     public Mono<Void> delete() {
-        client.outbound().next("PRIVMSG #" + getChannel() + " :/delete " + message.getTags().get(IRCEvent.Message.Tag.id));
-        return Mono.empty();
+        return command("/delete " + message.getTag(Tag.ID, ""));
     }
     
     @Override
     public Mono<Void> kick() {
-        client.outbound().next("PRIVMSG #" + getChannel() + " :/timeout " + message.getUser() + " 1");
-        return Mono.empty();
+        return command("/timeout " + message.getUser() + " 1");
     }
     
     @Override
     public Mono<Void> ban() {
-        client.outbound().next("PRIVMSG #" + getChannel() + " :/ban " + message.getUser());
-        return Mono.empty();
+        return command("/ban " + message.getUser());
+    }
+    
+    private Mono<Void> command(String command) {
+        return Mono.just(command)
+                .filter(c -> commands.command(getChannel().toLowerCase(Locale.ROOT), c))
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("Too many Twitch messages waiting to be sent")))
+                .then();
     }
 
     @Override
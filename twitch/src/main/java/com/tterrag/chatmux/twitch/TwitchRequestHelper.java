@@ -20,8 +20,8 @@ public class TwitchRequestHelper extends RequestHelper {
     
     private final String token;
     
-    public TwitchRequestHelper(ObjectMapper mapper, String token) {
-        super(mapper, "https://api.twitch.tv/helix");
+    public TwitchRequestHelper(ObjectMapper mapper, String baseUrl, String token) {
+        super(mapper, baseUrl);
         this.token = token;
     }
 
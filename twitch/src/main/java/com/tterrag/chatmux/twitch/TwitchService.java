@@ -26,8 +26,8 @@ public class TwitchService extends AbstractChatService<TwitchMessage, TwitchSour
     
     @Override
     protected TwitchSource createSource() {
-        TwitchRequestHelper helper = new TwitchRequestHelper(new ObjectMapper(), getData().getTokenReceive());
-        return new TwitchSource(helper);
+        TwitchRequestHelper helper = new TwitchRequestHelper(new ObjectMapper(), getData().getHelixUrl(), getData().getTokenReceive());
+        return new TwitchSource(helper, new TwitchUserCache(helper));
     }
     
     @Getter
@@ -46,8 +46,8 @@ public class TwitchService extends AbstractChatService<TwitchMessage, TwitchSour
     
     @Override
     public Mono<String> prettifyChannel(ChatService<?> target, ChatChannel<?> channel) {
-        return getSource().getHelper()
-                .getUser(channel.getName())
+        return getSource().getUsers()
+                .get(channel.getName())
                 .map(ur -> channel.getService().getName() + "/" + ur.displayName);
     }
     
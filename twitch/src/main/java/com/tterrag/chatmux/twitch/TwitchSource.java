@@ -1,17 +1,10 @@
 package com.tterrag.chatmux.twitch;
 
 import java.util.Locale;
-import java.util.Set;
-import java.util.function.Function;
 
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Sets;
 import com.tterrag.chatmux.api.bridge.ChatMessage;
 import com.tterrag.chatmux.api.bridge.ChatSource;
-import com.tterrag.chatmux.api.websocket.WebSocketClient;
 import com.tterrag.chatmux.twitch.irc.IRCEvent;
-import com.tterrag.chatmux.websocket.SimpleFrameParser;
-import com.tterrag.chatmux.websocket.SimpleWebSocketClient;
 
 import lombok.AccessLevel;
 import lombok.Getter;
@@ -28,14 +21,20 @@ public class TwitchSource implements ChatSource<TwitchMessage> {
     @NonNull
     @Getter(AccessLevel.PACKAGE)
     private final TwitchRequestHelper helper;
+    @NonNull
+    @Getter(AccessLevel.PACKAGE)
+    private final TwitchUserCache users;
     private boolean connected;
 
     @NonNull
-    private final WebSocketClient<IRCEvent, String> send = new SimpleWebSocketClient<>();
+    private final TwitchConnectionPool send = TwitchConnectionPool.send(TwitchService.getInstance().getData());
     @NonNull
-    private final WebSocketClient<IRCEvent, String> receive = new SimpleWebSocketClient<>();
+    private final TwitchConnectionPool receive = TwitchConnectionPool.receive(TwitchService.getInstance().getData());
     
-    private final Set<String> sentMessages = Sets.newConcurrentHashSet();
+    private final EchoFilter echoes = new EchoFilter(TwitchService.getInstance().getData().getNickSend());
+    
+    private final OutboundScheduler sendQueue = new OutboundScheduler(send, TwitchService.getInstance().getData(), echoes);
+    private final OutboundScheduler receiveQueue = new OutboundScheduler(receive, TwitchService.getInstance().getData(), null);
     
     @Override
     public TwitchService getType() {
@@ -47,63 +46,56 @@ public class TwitchSource implements ChatSource<TwitchMessage> {
     @Override
     public Flux<TwitchMessage> connect(String channel) {
         if (!connected) {
-            send.connect("wss://irc-ws.chat.twitch.tv:443", new SimpleFrameParser<>(IRCEvent::parse, Function.identity()))
-                .subscribe($ -> {}, t -> log.error("Twitch websocket completed with error", t), () -> log.error("Twitch websocket completed"));
-            
-            send.outbound()
-                .next("PASS oauth:" + TwitchService.getInstance().getData().getTokenSend())
-                .next("NICK " + TwitchService.getInstance().getData().getNickSend())
-                .next("CAP REQ :twitch.tv/tags")
-                .next("CAP REQ :twitch.tv/commands");
-            
-            receive.connect("wss://irc-ws.chat.twitch.tv:443", new SimpleFrameParser<>(IRCEvent::parse, Function.identity()))
-                .subscribe($ -> {}, t -> log.error("Twitch websocket completed with error", t), () -> log.error("Twitch websocket completed"));
-        
-            receive.outbound()
-                .next("PASS oauth:" + TwitchService.getInstance().getData().getTokenReceive())
-                .next("NICK " + TwitchService.getInstance().getData().getNickReceive())
-                .next("CAP REQ :twitch.tv/tags")
-                .next("CAP REQ :twitch.tv/commands");
+            // Each account paces its own messages, so each needs to know where it is a moderator
+            trackModerator(send, sendQueue);
+            trackModerator(receive, receiveQueue);
             connected = true;
         }
         final String lcChan = channel.toLowerCase(Locale.ROOT);
-        send.outbound().next("JOIN #" + lcChan);
-        receive.outbound().next("JOIN #" + lcChan);
-        
-        Flux<IRCEvent.Ping> pingPongSend = send.inbound().ofType(IRCEvent.Ping.class)
-                .doOnNext(p -> send.outbound().next("PONG :tmi.twitch.tv"));
-        Flux<IRCEvent.Ping> pingPongReceive = receive.inbound().ofType(IRCEvent.Ping.class)
-                .doOnNext(p -> receive.outbound().next("PONG :tmi.twitch.tv"));
+        sendQueue.join(lcChan);
+        receiveQueue.join(lcChan);
         
         synchronized (this) {
             if (messageRelay == null) {
-                messageRelay = receive.inbound().ofType(IRCEvent.Message.class)
-                        .filter(e -> !sentMessages.remove(e.getContent()))
-                        .flatMap(e -> helper.getUser(e.getUser()).switchIfEmpty(Mono.error(new IllegalArgumentException("Could not find user")))
-                                            .zipWith(helper.getUser(e.getChannel()).switchIfEmpty(Mono.error(new IllegalArgumentException("Could not find channel"))),
-                                                    (u, c) -> new TwitchMessage(receive, e, c.displayName, u.displayName, u.avatarUrl)))
+                messageRelay = receive.connections()
+                        .flatMap(c -> c.getClient().inbound().ofType(IRCEvent.Message.class)
+                                .filter(e -> !echoes.isEcho(e))
+                                .doOnNext(e -> {
+                                    // Avatars are not part of the tags, so look them up in the background for next time
+                                    if (TwitchService.getInstance().getData().isFetchAvatars() && !users.getIfPresent(e.getUser()).isPresent()) {
+                                        users.get(e.getUser()).subscribe($ -> {}, t -> log.warn("Could not look up avatar for " + e.getUser(), t));
+                                    }
+                                })
+                                .map(e -> new TwitchMessage(receiveQueue, e, TwitchService.getInstance().getData().isFetchAvatars() ? users : null)))
                         .doOnTerminate(() -> { synchronized(TwitchSource.this) { messageRelay = null; }})
                         .share();
             }
-            return Flux.merge(pingPongSend, pingPongReceive, messageRelay)
-                    .ofType(TwitchMessage.class)
-                    .filter(e -> e.getChannel().equalsIgnoreCase(lcChan));
+            return messageRelay.filter(e -> e.getChannel().equalsIgnoreCase(lcChan));
         }
     }
     
+    private static void trackModerator(TwitchConnectionPool pool, OutboundScheduler queue) {
+        pool.connections()
+            .flatMap(c -> c.getClient().inbound().ofType(IRCEvent.UserState.class))
+            .subscribe(e -> queue.setModerator(e.getChannel(), e.isModerator()));
+    }
+    
     @Override
     public Mono<TwitchMessage> send(String channel, ChatMessage<?> message, boolean raw) {
         String content = raw ? message.getContent() : message.toString();
         String username = TwitchService.getInstance().getData().getNickSend();
-        return Mono.just(send.outbound())
-                .doOnNext($ -> sentMessages.add(content))
-                .doOnNext(sink -> sink.next("PRIVMSG #" + channel.toLowerCase(Locale.ROOT) + " :" + content))
-                .thenReturn(new TwitchMessage(send, new IRCEvent.Message(ImmutableMap.of(), username, channel, content), channel, username, null)); // TODO have a second websocket reading our own message events
+        String lcChan = channel.toLowerCase(Locale.ROOT);
+        return Mono.just(content)
+                .filter(c -> sendQueue.privmsg(lcChan, c))
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("Too many Twitch messages waiting to be sent")))
+                .thenReturn(new TwitchMessage(sendQueue, new IRCEvent.Message(username, channel, content), channel, username, null)); // TODO have a second websocket reading our own message events
     }
 
     @Override
     public void disconnect(String channel) {
-        send.outbound().next("PART #" + channel);
-        receive.outbound().next("PART #" + channel);
+        final String lcChan = channel.toLowerCase(Locale.ROOT);
+        // Each queue releases the channel from its pool once nothing is left to send to it
+        sendQueue.part(lcChan);
+        receiveQueue.part(lcChan);
     }
 }
\ No newline at end of file
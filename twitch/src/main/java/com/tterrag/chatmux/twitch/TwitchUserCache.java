@@ -0,0 +1,140 @@
+package com.tterrag.chatmux.twitch;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.tterrag.chatmux.twitch.response.UserResponse;
+import com.tterrag.chatmux.util.metrics.Metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+/**
+ * Looks up Helix users by login, with caching. Lookups which are not cached are collected for a short window and then
+ * sent as a single {@code /users?login=...} request of up to {@value #MAX_BATCH} logins, and concurrent lookups of the
+ * same login share one request. Logins which do not exist are remembered for a shorter time, so that they are not
+ * looked up again for every message.
+ */
+@Slf4j
+public class TwitchUserCache {
+    
+    private static final int MAX_BATCH = 100;
+    private static final Duration BATCH_WINDOW = Duration.ofMillis(50);
+    
+    private final TwitchRequestHelper helper;
+    
+    private final Cache<String, Optional<UserResponse>> cache = CacheBuilder.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .recordStats()
+            .build();
+    
+    private final Cache<String, Boolean> missing = CacheBuilder.newBuilder()
+            .maximumSize(1_000)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+    
+    private final Map<String, Sinks.One<UserResponse>> pending = new ConcurrentHashMap<>();
+    
+    private final Sinks.Many<String> requests = Sinks.many().unicast().onBackpressureBuffer();
+    
+    private final AtomicLong batches = new AtomicLong();
+    
+    public TwitchUserCache(TwitchRequestHelper helper) {
+        this.helper = helper;
+        requests.asFlux()
+                .bufferTimeout(MAX_BATCH, BATCH_WINDOW)
+                .flatMap(this::fetch)
+                .subscribe($ -> {}, t -> log.error("User lookup pipeline terminated", t));
+        
+        Metrics.gauge("chatmux_twitch_user_cache_size", "Twitch users in the lookup cache").register(cache::size);
+        Metrics.counterCallback("chatmux_twitch_user_cache_hits_total", "Twitch user lookups answered from the cache").register(() -> cache.stats().hitCount());
+        Metrics.counterCallback("chatmux_twitch_user_cache_misses_total", "Twitch user lookups not in the cache").register(() -> cache.stats().missCount());
+        Metrics.gauge("chatmux_twitch_user_cache_hit_ratio", "Fraction of Twitch user lookups answered from the cache").register(() -> cache.stats().hitRate());
+        Metrics.counterCallback("chatmux_twitch_user_batches_total", "Batched Helix user requests").register(batches::get);
+    }
+    
+    /**
+     * Looks up a user by login.
+     * 
+     * @return A {@link Mono} of the user, which is empty if no such user exists
+     */
+    public Mono<UserResponse> get(String login) {
+        String key = login.toLowerCase(Locale.ROOT);
+        Optional<UserResponse> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return Mono.justOrEmpty(cached);
+        }
+        if (missing.getIfPresent(key) != null) {
+            return Mono.empty();
+        }
+        return pending.computeIfAbsent(key, k -> {
+            Sinks.One<UserResponse> sink = Sinks.one();
+            synchronized (requests) {
+                requests.tryEmitNext(k);
+            }
+            return sink;
+        }).asMono();
+    }
+    
+    /**
+     * Gets a user only if it is already cached, without ever making a request.
+     */
+    public Optional<UserResponse> getIfPresent(String login) {
+        Optional<UserResponse> cached = cache.getIfPresent(login.toLowerCase(Locale.ROOT));
+        return cached == null ? Optional.empty() : cached;
+    }
+    
+    private Mono<Void> fetch(List<String> logins) {
+        batches.incrementAndGet();
+        return helper.getUsers(logins.toArray(new String[0]))
+                .filter(u -> u.login != null)
+                .collectMap(u -> u.login.toLowerCase(Locale.ROOT))
+                .doOnNext(found -> logins.forEach(login -> {
+                    UserResponse user = found.get(login);
+                    if (user != null) {
+                        cache.put(login, Optional.of(user));
+                    } else {
+                        missing.put(login, Boolean.TRUE);
+                    }
+                    Sinks.One<UserResponse> sink = pending.remove(login);
+                    if (sink != null) {
+                        if (user != null) {
+                            sink.tryEmitValue(user);
+                        } else {
+                            sink.tryEmitEmpty();
+                        }
+                    }
+                }))
+                .doOnError(t -> logins.forEach(login -> {
+                    Sinks.One<UserResponse> sink = pending.remove(login);
+                    if (sink != null) {
+                        sink.tryEmitError(t);
+                    }
+                }))
+                .onErrorResume(t -> Mono.empty())
+                .then();
+    }
+    
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+    
+    /**
+     * @return The total amount of batched requests sent to Helix
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+}
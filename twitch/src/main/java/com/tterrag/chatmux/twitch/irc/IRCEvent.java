@@ -1,45 +1,49 @@
 package com.tterrag.chatmux.twitch.irc;
 
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import com.google.common.collect.ImmutableMap;
 
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.Value;
+import reactor.util.annotation.Nullable;
 
 public class IRCEvent {
     
-    private static final Pattern MESSAGE = Pattern.compile("^(?:@(.*)\\s)?:(\\w+)!\\w+@\\w+\\.tmi\\.twitch\\.tv PRIVMSG #(\\w+) :(.+)$");
+    public static IRCEvent parse(CharSequence raw) {
+        return parse(raw, 0, raw.length());
+    }
     
-    public static IRCEvent parse(String raw) {
-        if (raw.trim().equals("PING :tmi.twitch.tv")) {
+    /**
+     * Parses a single line within the given region of the input.
+     */
+    public static IRCEvent parse(CharSequence raw, int start, int end) {
+        IRCLine line = IRCLine.parse(raw, start, end);
+        if (line == null) {
+            return new Unknown(raw.subSequence(start, end).toString());
+        }
+        if (line.isCommand("PING")) {
             return new Ping();
         }
-        
-        Matcher m = MESSAGE.matcher(raw.trim());
-        if (m.matches()) {
-            String tags = m.group(1);
-            ImmutableMap<Message.Tag, String> tagMap;
-            if (tags == null) {
-                tagMap = ImmutableMap.of();
-            } else {
-                ImmutableMap.Builder<Message.Tag, String> builder = ImmutableMap.builder();
-                String[] tagArr = tags.split(";");
-                for (String tag : tagArr) {
-                    String[] tagData = tag.split("=");
-                    try {
-                        Message.Tag tagId = Message.Tag.valueOf(tagData[0]);
-                        builder.put(tagId, tagData[1]);
-                    } catch (IllegalArgumentException e) {}
-                }
-                tagMap = builder.build();
+        if (line.isCommand("PONG")) {
+            // The server name comes first, then whatever the PING said
+            String token = line.getParam(1);
+            return new Pong(token != null ? token : String.valueOf(line.getParam(0)));
+        }
+        if (line.isCommand("PRIVMSG")) {
+            String user = line.getNick();
+            String channel = line.getParam(0);
+            String content = line.getParam(1);
+            if (user != null && channel != null && channel.startsWith("#") && content != null && !content.isEmpty()) {
+                return new Message(line, user, channel.substring(1), content);
             }
-            return new Message(tagMap, m.group(2), m.group(3), m.group(4));
         }
-        
-        return new Unknown(raw); // Unknown event
+        if (line.isCommand("USERSTATE")) {
+            String channel = line.getParam(0);
+            if (channel != null && channel.startsWith("#")) {
+                return new UserState(line, channel.substring(1));
+            }
+        }
+        return new Unknown(line.toString()); // Unknown event
     }
 
     public static class Ping extends IRCEvent {
@@ -50,17 +54,64 @@ public class IRCEvent {
         }
     }
 
+    @Value
+    @EqualsAndHashCode(callSuper = false)
+    public static class Pong extends IRCEvent {
+        
+        String token;
+    }
+
     @Value
     public static class Message extends IRCEvent {
         
         public enum Tag {
-            id,
+            ID("id"),
+            DISPLAY_NAME("display-name"),
+            USER_ID("user-id"),
+            ROOM_ID("room-id"),
+            COLOR("color"),
+            BADGES("badges"),
+            EMOTES("emotes"),
+            TMI_SENT_TS("tmi-sent-ts"),
+            CLIENT_NONCE("client-nonce"),
             ;
+            
+            @Getter
+            private final String key;
+            
+            private Tag(String key) {
+                this.key = key;
+            }
         }
         
-        private final ImmutableMap<Tag, String> tags;
+        /**
+         * The line this message was parsed from, which tags are read from on demand. Null for messages that did not
+         * come from IRC. Messages are kept around for a while, so this is a copy of just the line, not the whole frame
+         * it arrived in.
+         */
+        @Nullable
+        private final IRCLine line;
         
         private final String user, channel, content;
+        
+        public Message(String user, String channel, String content) {
+            this(null, user, channel, content);
+        }
+        
+        public Message(@Nullable IRCLine line, String user, String channel, String content) {
+            this.line = line == null ? null : line.compact();
+            this.user = user;
+            this.channel = channel;
+            this.content = content;
+        }
+        
+        /**
+         * Gets a tag, or a fallback if the server did not send it. Empty tags count as not sent.
+         */
+        public String getTag(Tag tag, String fallback) {
+            String ret = line == null ? null : line.getTag(tag.getKey());
+            return ret == null || ret.isEmpty() ? fallback : ret;
+        }
 
         @Override
         public boolean equals(Object obj) {
@@ -74,12 +125,32 @@ public class IRCEvent {
                 return false;
             }
             Message other = (Message) obj;
-            return Objects.equals(tags.get(Tag.id), other.tags.get(Tag.id));
+            return Objects.equals(getTag(Tag.ID, ""), other.getTag(Tag.ID, ""));
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(tags.get(Tag.id));
+            return Objects.hash(getTag(Tag.ID, ""));
+        }
+    }
+
+    /**
+     * Sent after joining a channel and after every message sent to it, with the state of our own user there.
+     */
+    @Value
+    @EqualsAndHashCode(callSuper = false)
+    public static class UserState extends IRCEvent {
+        
+        IRCLine line;
+        
+        String channel;
+        
+        /**
+         * @return True if our user is a moderator or the broadcaster of the channel
+         */
+        public boolean isModerator() {
+            String badges = line.getTag("badges");
+            return "1".equals(line.getTag("mod")) || (badges != null && (badges.startsWith("broadcaster/") || badges.contains(",broadcaster/")));
         }
     }
 
@@ -0,0 +1,41 @@
+package com.tterrag.chatmux.twitch.irc;
+
+import java.util.function.Consumer;
+
+import com.tterrag.chatmux.websocket.FrameDecoder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+
+/**
+ * Decodes websocket frames from Twitch IRC, which may contain several lines separated by {@code \r\n}.
+ * <p>
+ * The frame is decoded to text once, and each line is parsed in place within it rather than being split out into its
+ * own string. Empty lines are skipped.
+ */
+public class IRCFrameDecoder implements FrameDecoder<IRCEvent> {
+
+    @Override
+    public void decode(ByteBuf content, Consumer<? super IRCEvent> out) {
+        decode(content.toString(CharsetUtil.UTF_8), out);
+    }
+
+    public void decode(CharSequence frame, Consumer<? super IRCEvent> out) {
+        int length = frame.length();
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && frame.charAt(end) != '\n') {
+                end++;
+            }
+            int lineEnd = end;
+            while (lineEnd > start && frame.charAt(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > start) {
+                out.accept(IRCEvent.parse(frame, start, lineEnd));
+            }
+            start = end + 1;
+        }
+    }
+}
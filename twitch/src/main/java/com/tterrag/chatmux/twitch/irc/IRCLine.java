@@ -0,0 +1,256 @@
+package com.tterrag.chatmux.twitch.irc;
+
+import java.util.function.BiConsumer;
+
+import reactor.util.annotation.Nullable;
+
+/**
+ * A single IRC line, parsed in one pass over the source text without copying it.
+ * <p>
+ * Only the boundaries of the tags, prefix, command and params are found up front. The parts themselves are only turned
+ * into strings when they are asked for, and tag values are unescaped as described by the IRCv3 message-tags spec.
+ */
+public final class IRCLine {
+
+    private final CharSequence source;
+
+    private final int tagsStart, tagsEnd;
+    private final int prefixStart, prefixEnd;
+    private final int commandStart, commandEnd;
+    private final int paramsStart, end;
+
+    private IRCLine(CharSequence source, int tagsStart, int tagsEnd, int prefixStart, int prefixEnd, int commandStart, int commandEnd, int paramsStart, int end) {
+        this.source = source;
+        this.tagsStart = tagsStart;
+        this.tagsEnd = tagsEnd;
+        this.prefixStart = prefixStart;
+        this.prefixEnd = prefixEnd;
+        this.commandStart = commandStart;
+        this.commandEnd = commandEnd;
+        this.paramsStart = paramsStart;
+        this.end = end;
+    }
+
+    /**
+     * Parses a full line.
+     *
+     * @return The parsed line, or null if it has no command
+     */
+    @Nullable
+    public static IRCLine parse(CharSequence source) {
+        return parse(source, 0, source.length());
+    }
+
+    /**
+     * Parses the line within the given region of the source. Surrounding whitespace and line endings are ignored.
+     *
+     * @return The parsed line, or null if it has no command
+     */
+    @Nullable
+    public static IRCLine parse(CharSequence source, int start, int end) {
+        while (end > start && isWhitespace(source.charAt(end - 1))) {
+            end--;
+        }
+        int i = skipSpaces(source, start, end);
+
+        int tagsStart = -1, tagsEnd = -1;
+        if (i < end && source.charAt(i) == '@') {
+            tagsStart = i + 1;
+            tagsEnd = indexOf(source, ' ', tagsStart, end);
+            i = skipSpaces(source, tagsEnd, end);
+        }
+
+        int prefixStart = -1, prefixEnd = -1;
+        if (i < end && source.charAt(i) == ':') {
+            prefixStart = i + 1;
+            prefixEnd = indexOf(source, ' ', prefixStart, end);
+            i = skipSpaces(source, prefixEnd, end);
+        }
+
+        int commandStart = i;
+        int commandEnd = indexOf(source, ' ', commandStart, end);
+        if (commandEnd == commandStart) {
+            return null;
+        }
+        int paramsStart = skipSpaces(source, commandEnd, end);
+        return new IRCLine(source, tagsStart, tagsEnd, prefixStart, prefixEnd, commandStart, commandEnd, paramsStart, end);
+    }
+
+    /**
+     * Gets a copy of this line which only holds on to its own text, for when the line is kept around and the source may
+     * be a much larger frame.
+     */
+    public IRCLine compact() {
+        int start = startIndex();
+        if (start == 0 && end == source.length() && source instanceof String) {
+            return this;
+        }
+        return new IRCLine(source.subSequence(start, end).toString(), shift(tagsStart, start), shift(tagsEnd, start), shift(prefixStart, start), shift(prefixEnd, start),
+                commandStart - start, commandEnd - start, paramsStart - start, end - start);
+    }
+
+    private int startIndex() {
+        return tagsStart >= 0 ? tagsStart - 1 : prefixStart >= 0 ? prefixStart - 1 : commandStart;
+    }
+
+    private static int shift(int index, int by) {
+        return index < 0 ? index : index - by;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\r' || c == '\n';
+    }
+
+    private static int skipSpaces(CharSequence s, int from, int end) {
+        while (from < end && s.charAt(from) == ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private static int indexOf(CharSequence s, char c, int from, int end) {
+        while (from < end && s.charAt(from) != c) {
+            from++;
+        }
+        return from;
+    }
+
+    private static boolean regionEquals(CharSequence s, int start, int end, String other) {
+        if (end - start != other.length()) {
+            return false;
+        }
+        for (int i = 0; i < other.length(); i++) {
+            if (s.charAt(start + i) != other.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks the command of this line without creating a string for it.
+     */
+    public boolean isCommand(String command) {
+        return regionEquals(source, commandStart, commandEnd, command);
+    }
+
+    public String getCommand() {
+        return source.subSequence(commandStart, commandEnd).toString();
+    }
+
+    public boolean hasTags() {
+        return tagsStart >= 0;
+    }
+
+    @Nullable
+    public String getPrefix() {
+        return prefixStart < 0 ? null : source.subSequence(prefixStart, prefixEnd).toString();
+    }
+
+    /**
+     * @return The nick part of the prefix, i.e. everything before the {@code !}, or null if there is no prefix
+     */
+    @Nullable
+    public String getNick() {
+        if (prefixStart < 0) {
+            return null;
+        }
+        return source.subSequence(prefixStart, indexOf(source, '!', prefixStart, prefixEnd)).toString();
+    }
+
+    /**
+     * Gets a parameter by index. The trailing parameter (after {@code :}) counts as the last one.
+     *
+     * @return The parameter, or null if there are not that many
+     */
+    @Nullable
+    public String getParam(int index) {
+        int i = paramsStart;
+        int n = 0;
+        while (i < end) {
+            if (source.charAt(i) == ':') {
+                return n == index ? source.subSequence(i + 1, end).toString() : null;
+            }
+            int paramEnd = indexOf(source, ' ', i, end);
+            if (n == index) {
+                return source.subSequence(i, paramEnd).toString();
+            }
+            n++;
+            i = skipSpaces(source, paramEnd, end);
+        }
+        return null;
+    }
+
+    /**
+     * Gets the value of a tag, unescaped.
+     *
+     * @return The value, which is empty if the tag has no value, or null if the tag is not present
+     */
+    @Nullable
+    public String getTag(String key) {
+        int i = tagsStart;
+        while (i >= 0 && i < tagsEnd) {
+            int entryEnd = indexOf(source, ';', i, tagsEnd);
+            int split = indexOf(source, '=', i, entryEnd);
+            if (regionEquals(source, i, split, key)) {
+                return split < entryEnd ? unescape(source, split + 1, entryEnd) : "";
+            }
+            i = entryEnd + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Visits every tag on this line, with unescaped values.
+     */
+    public void forEachTag(BiConsumer<String, String> action) {
+        int i = tagsStart;
+        while (i >= 0 && i < tagsEnd) {
+            int entryEnd = indexOf(source, ';', i, tagsEnd);
+            int split = indexOf(source, '=', i, entryEnd);
+            if (split > i) {
+                action.accept(source.subSequence(i, split).toString(), split < entryEnd ? unescape(source, split + 1, entryEnd) : "");
+            }
+            i = entryEnd + 1;
+        }
+    }
+
+    static String unescape(CharSequence s, int start, int end) {
+        int escape = indexOf(s, '\\', start, end);
+        if (escape == end) {
+            return s.subSequence(start, end).toString();
+        }
+        StringBuilder ret = new StringBuilder(end - start);
+        ret.append(s, start, escape);
+        for (int i = escape; i < end; i++) {
+            char c = s.charAt(i);
+            if (c != '\\') {
+                ret.append(c);
+            } else if (++i < end) {
+                c = s.charAt(i);
+                switch (c) {
+                    case ':':
+                        ret.append(';');
+                        break;
+                    case 's':
+                        ret.append(' ');
+                        break;
+                    case 'r':
+                        ret.append('\r');
+                        break;
+                    case 'n':
+                        ret.append('\n');
+                        break;
+                    default:
+                        ret.append(c);
+                }
+            }
+        }
+        return ret.toString();
+    }
+
+    @Override
+    public String toString() {
+        return source.subSequence(startIndex(), end).toString();
+    }
+}
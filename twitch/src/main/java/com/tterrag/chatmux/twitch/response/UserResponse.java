@@ -1,5 +1,6 @@
 package com.tterrag.chatmux.twitch.response;
 
+import com.fasterxml.jackson.annotation.JsonAlias;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -9,9 +10,11 @@ import lombok.ToString;
 @ToString
 public class UserResponse {
 
-    @JsonProperty("_id")
+    @JsonProperty("id")
+    @JsonAlias("_id")
     public String id;
-    @JsonProperty("name")
+    @JsonProperty("login")
+    @JsonAlias("name")
     public String login;
     @JsonProperty("display_name")
     public String displayName;
@@ -0,0 +1,133 @@
+package com.tterrag.chatmux.twitch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.util.annotation.Nullable;
+
+public class OutboundSchedulerTest {
+
+    private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+
+    private DisposableServer server;
+    private final TwitchData data = new TwitchData();
+    @Nullable
+    private OutboundScheduler scheduler;
+
+    @BeforeEach
+    public void server() {
+        // Stands in for Twitch, keeping every line but the login
+        server = HttpServer.create().port(0)
+                .route(r -> r.ws("/", (in, out) -> in.receive().asString()
+                        .flatMapIterable(frame -> Arrays.asList(frame.split("\r\n")))
+                        .filter(line -> !line.isEmpty() && !line.startsWith("PASS ") && !line.startsWith("NICK ") && !line.startsWith("CAP "))
+                        .doOnNext(lines::add)
+                        .then()))
+                .bindNow();
+        data.setIrcUrl("ws://localhost:" + server.port() + "/");
+    }
+
+    @AfterEach
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.dispose();
+        }
+        server.disposeNow();
+    }
+
+    private OutboundScheduler scheduler() {
+        return scheduler = new OutboundScheduler(TwitchConnectionPool.send(data), data, null);
+    }
+
+    private void expect(String... expected) throws InterruptedException {
+        for (String line : expected) {
+            assertEquals(line, lines.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private void expectNothing(long millis) throws InterruptedException {
+        assertNull(lines.poll(millis, TimeUnit.MILLISECONDS));
+    }
+
+    private static String repeat(char c, int count) {
+        char[] ret = new char[count];
+        Arrays.fill(ret, c);
+        return new String(ret);
+    }
+
+    @Test
+    public void tokenBucketSlides() {
+        OutboundScheduler.TokenBucket bucket = new OutboundScheduler.TokenBucket(2, 1000);
+        assertTrue(bucket.availableAt() <= 0);
+        bucket.take(0);
+        bucket.take(100);
+        // Each token comes back a full window after it was taken, not all at once
+        assertEquals(1000, bucket.availableAt());
+        bucket.take(1000);
+        assertEquals(1100, bucket.availableAt());
+        bucket.take(1100);
+        assertEquals(2000, bucket.availableAt());
+    }
+
+    @Test
+    public void sendsInQueueOrderAcrossChannels() throws InterruptedException {
+        OutboundScheduler scheduler = scheduler();
+        for (String channel : new String[] { "a", "b" }) {
+            scheduler.setModerator(channel, true);
+            scheduler.join(channel);
+        }
+        scheduler.privmsg("a", "a1");
+        scheduler.privmsg("b", "b1");
+        scheduler.privmsg("a", "a2");
+        scheduler.privmsg("b", "b2");
+        expect("JOIN #a", "JOIN #b", "PRIVMSG #a :a1", "PRIVMSG #b :b1", "PRIVMSG #a :a2", "PRIVMSG #b :b2");
+    }
+
+    @Test
+    public void packsUpToLimitButNeverCommands() throws InterruptedException {
+        data.setPackMessages(true);
+        OutboundScheduler scheduler = scheduler();
+        scheduler.setModerator("a", true);
+        scheduler.join("a");
+        String long1 = repeat('1', 200), long2 = repeat('2', 200), long3 = repeat('3', 200);
+        scheduler.privmsg("a", long1);
+        scheduler.privmsg("a", long2);
+        scheduler.privmsg("a", long3);
+        scheduler.command("a", "/ban someone");
+        scheduler.privmsg("a", "x");
+        scheduler.privmsg("a", "y");
+        expect("JOIN #a",
+                "PRIVMSG #a :" + long1 + " | " + long2,
+                // Would go over 500 characters
+                "PRIVMSG #a :" + long3,
+                "PRIVMSG #a :/ban someone",
+                "PRIVMSG #a :x | y");
+    }
+
+    @Test
+    public void holdsMessagesUntilJoined() throws InterruptedException {
+        data.setJoinLimit(1);
+        OutboundScheduler scheduler = scheduler();
+        scheduler.setModerator("a", true);
+        scheduler.setModerator("b", true);
+        scheduler.join("a");
+        scheduler.join("b");
+        scheduler.privmsg("b", "waits for its JOIN");
+        scheduler.privmsg("a", "goes first");
+        expect("JOIN #a", "PRIVMSG #a :goes first");
+        // The second JOIN is over the limit for the next 10 seconds
+        expectNothing(500);
+    }
+}
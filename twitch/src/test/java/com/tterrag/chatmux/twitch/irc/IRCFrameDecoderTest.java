@@ -0,0 +1,76 @@
+package com.tterrag.chatmux.twitch.irc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+
+public class IRCFrameDecoderTest {
+
+    /**
+     * A single frame as received from a busy channel, with Twitch's {@code \r\n} separators. The blank line and the
+     * missing terminator on the last line are not something Twitch sends, but the decoder should not trip over them.
+     */
+    private static final String FRAME =
+            "@badge-info=;badges=;color=#1E90FF;display-name=Viewer_One;emotes=;id=b34ccfc7-4977-403a-8a94-33c6bac34fb8;room-id=22484632;tmi-sent-ts=1605208521441;user-id=40286300 :viewer_one!viewer_one@viewer_one.tmi.twitch.tv PRIVMSG #some_channel :first\r\n"
+          + "@badge-info=;badges=premium/1;color=;display-name=viewer_two;emotes=;id=5d2e4f61-9a1b-4c38-b6f0-7c0a2b9e1d44;room-id=22484632;tmi-sent-ts=1605208521503;user-id=51234567 :viewer_two!viewer_two@viewer_two.tmi.twitch.tv PRIVMSG #some_channel :second one\r\n"
+          + "PING :tmi.twitch.tv\r\n"
+          + "@badge-info=;badges=;color=#FF4500;display-name=Zuschauer;emotes=;id=0c8f3a2e-6b71-4d09-9e55-1f2a3b4c5d6e;room-id=22484632;tmi-sent-ts=1605208521577;user-id=61234567 :zuschauer!zuschauer@zuschauer.tmi.twitch.tv PRIVMSG #some_channel :Grüße aus Köln 🎉\r\n"
+          + "\r\n"
+          + "@badge-info=;badges=;login=viewer_four;msg-id=raid;room-id=22484632;system-msg=4\\sraiders\\sfrom\\sViewer_Four\\shave\\sjoined! :tmi.twitch.tv USERNOTICE #some_channel\r\n"
+          + "@badge-info=;badges=;color=;display-name=Last;emotes=;id=9a8b7c6d-5e4f-4a3b-2c1d-0e9f8a7b6c5d;room-id=22484632;tmi-sent-ts=1605208521650;user-id=71234567 :last!last@last.tmi.twitch.tv PRIVMSG #some_channel :no line ending";
+
+    private static List<IRCEvent> decode(String frame) {
+        List<IRCEvent> ret = new ArrayList<>();
+        ByteBuf buf = Unpooled.copiedBuffer(frame, CharsetUtil.UTF_8);
+        try {
+            new IRCFrameDecoder().decode(buf, ret::add);
+        } finally {
+            buf.release();
+        }
+        return ret;
+    }
+
+    private static void assertMessage(IRCEvent event, String user, String displayName, String content) {
+        IRCEvent.Message message = assertInstanceOf(IRCEvent.Message.class, event);
+        assertEquals(user, message.getUser());
+        assertEquals("some_channel", message.getChannel());
+        assertEquals(content, message.getContent());
+        assertEquals(displayName, message.getTag(IRCEvent.Message.Tag.DISPLAY_NAME, ""));
+        assertEquals("22484632", message.getTag(IRCEvent.Message.Tag.ROOM_ID, ""));
+    }
+
+    @Test
+    public void decodesBatchedFrame() {
+        List<IRCEvent> events = decode(FRAME);
+
+        assertEquals(6, events.size(), events::toString);
+        assertMessage(events.get(0), "viewer_one", "Viewer_One", "first");
+        assertMessage(events.get(1), "viewer_two", "viewer_two", "second one");
+        assertInstanceOf(IRCEvent.Ping.class, events.get(2));
+        assertMessage(events.get(3), "zuschauer", "Zuschauer", "Grüße aus Köln 🎉");
+        IRCEvent.Unknown notice = assertInstanceOf(IRCEvent.Unknown.class, events.get(4));
+        assertEquals(FRAME.split("\r\n")[5], notice.getRaw());
+        assertMessage(events.get(5), "last", "Last", "no line ending");
+    }
+
+    @Test
+    public void decodesSingleLine() {
+        List<IRCEvent> events = decode("PING :tmi.twitch.tv\r\n");
+
+        assertEquals(1, events.size());
+        assertInstanceOf(IRCEvent.Ping.class, events.get(0));
+    }
+
+    @Test
+    public void skipsEmptyFrame() {
+        assertEquals(0, decode("\r\n\r\n").size());
+    }
+}
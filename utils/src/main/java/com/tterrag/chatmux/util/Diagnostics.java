@@ -0,0 +1,66 @@
+package com.tterrag.chatmux.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import reactor.core.publisher.Signal;
+
+/**
+ * Runtime switch for the expensive diagnostics: netty wiretaps, per-signal reactor logging and operator debug.
+ * <p>
+ * When the performance profile is enabled all of these are skipped. The switch can be flipped at any time. Signal
+ * logging follows it immediately, while wiretaps and operator debug apply to connections and pipelines created after
+ * the change.
+ */
+public final class Diagnostics {
+    
+    private static volatile boolean performanceProfile;
+    
+    private static final List<Consumer<Boolean>> listeners = new CopyOnWriteArrayList<>();
+    
+    private Diagnostics() {}
+    
+    public static boolean isPerformanceProfile() {
+        return performanceProfile;
+    }
+    
+    /**
+     * @return True if verbose diagnostics such as wiretaps should be used, i.e. the performance profile is off
+     */
+    public static boolean isVerbose() {
+        return !performanceProfile;
+    }
+    
+    /**
+     * Switches the performance profile, notifying all listeners. Listeners are always notified, even if the value did
+     * not change, so this can be used to apply the initial state.
+     */
+    public static void setPerformanceProfile(boolean enabled) {
+        performanceProfile = enabled;
+        listeners.forEach(l -> l.accept(enabled));
+    }
+    
+    /**
+     * Adds a listener which is called with the new value whenever the performance profile is switched.
+     */
+    public static void addListener(Consumer<Boolean> listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * A replacement for {@link reactor.core.publisher.Flux#log(String)}, for use with {@code doOnEach}. Signals are
+     * only logged when the performance profile is off and the category is enabled for debug.
+     */
+    public static <T> Consumer<Signal<T>> logSignals(String category) {
+        Logger logger = LoggerFactory.getLogger(category);
+        return signal -> {
+            if (!performanceProfile && logger.isDebugEnabled()) {
+                logger.debug("{}", signal);
+            }
+        };
+    }
+}
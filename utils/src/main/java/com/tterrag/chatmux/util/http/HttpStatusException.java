@@ -0,0 +1,20 @@
+package com.tterrag.chatmux.util.http;
+
+import java.io.IOException;
+
+import lombok.Getter;
+
+/**
+ * Thrown when a request completes with a non-2xx status code.
+ */
+@SuppressWarnings("serial")
+public class HttpStatusException extends IOException {
+    
+    @Getter
+    private final int status;
+    
+    public HttpStatusException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+}
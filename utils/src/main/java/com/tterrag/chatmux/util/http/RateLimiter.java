@@ -0,0 +1,304 @@
+package com.tterrag.chatmux.util.http;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.util.annotation.Nullable;
+import reactor.util.retry.Retry;
+
+/**
+ * Schedules REST requests so that they respect the rate limits reported by the server, instead of firing them all at
+ * once and finding out through 429 responses.
+ * <p>
+ * Requests are grouped into buckets by route, and each bucket sends one request at a time. The limit headers of every
+ * response update the bucket, and the next request is held back until the bucket (and the global limit, if one was hit)
+ * resets. Both the Discord ({@code X-RateLimit-*}) and Helix ({@code Ratelimit-*}) headers are understood. If a request
+ * is rate limited anyway, it is retried after the {@code Retry-After} delay.
+ */
+@Slf4j
+public class RateLimiter {
+
+    private static final int MAX_RETRIES = 3;
+
+    private static final Pattern ID = Pattern.compile("\\d+");
+
+    /**
+     * Thrown internally when a response had status 429, to trigger a retry.
+     */
+    @SuppressWarnings("serial")
+    static class RateLimitedException extends RuntimeException {
+
+        RateLimitedException(String route) {
+            super("Rate limited on " + route);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class Task<T> {
+
+        final Mono<T> request;
+        final MonoSink<T> sink;
+
+        volatile boolean cancelled;
+        @Nullable
+        volatile Disposable inFlight;
+    }
+
+    public class Bucket {
+
+        @Getter
+        private final String route;
+
+        /**
+         * The route with every ID folded, including the major ones. Unlike the route, it does not grow with the amount of
+         * channels and webhooks, so it is what metrics are labelled with.
+         */
+        @Getter
+        private final String label;
+
+        private final Deque<Task<?>> tasks = new ArrayDeque<>();
+        private boolean running;
+
+        private int remaining = -1;
+        private long resetAt;
+
+        Bucket(String route, String label) {
+            this.route = route;
+            this.label = label;
+        }
+
+        /**
+         * Queues a request in this bucket.
+         *
+         * @return A {@link Mono} which emits the result of the request once it has been sent
+         */
+        public <T> Mono<T> submit(Mono<T> request) {
+            return Mono.create(sink -> {
+                Task<T> task = new Task<>(request, sink);
+                sink.onCancel(() -> {
+                    task.cancelled = true;
+                    Disposable inFlight = task.inFlight;
+                    if (inFlight != null) {
+                        inFlight.dispose();
+                    }
+                });
+                synchronized (this) {
+                    tasks.add(task);
+                }
+                queued.incrementAndGet();
+                next();
+            });
+        }
+
+        private void next() {
+            Task<?> task;
+            synchronized (this) {
+                if (running || tasks.isEmpty()) {
+                    return;
+                }
+                task = tasks.poll();
+                running = true;
+            }
+            queued.decrementAndGet();
+            if (task.cancelled) {
+                finish();
+                return;
+            }
+            run(task);
+        }
+
+        private <T> void run(Task<T> task) {
+            Mono<T> request = task.request
+                    .retryWhen(Retry.max(MAX_RETRIES)
+                            .filter(t -> t instanceof RateLimitedException)
+                            .doBeforeRetryAsync(signal -> Mono.delay(Duration.ofMillis(getDelay())).then()));
+            long delay = getDelay();
+            if (delay > 0) {
+                delayed.incrementAndGet();
+                log.debug("Delaying request on {} by {}ms", route, delay);
+                request = Mono.delay(Duration.ofMillis(delay)).then(request);
+            }
+            task.inFlight = request
+                    .doFinally($ -> finish())
+                    .subscribe(task.sink::success, task.sink::error, task.sink::success);
+        }
+
+        private void finish() {
+            synchronized (this) {
+                running = false;
+            }
+            next();
+        }
+
+        private synchronized long getDelay() {
+            long now = System.currentTimeMillis();
+            long delay = globalResetAt - now;
+            if (remaining == 0) {
+                delay = Math.max(delay, resetAt - now);
+            }
+            return Math.max(delay, 0);
+        }
+
+        /**
+         * Updates this bucket from the headers of a response.
+         *
+         * @return True if the response was a 429, and the request should be retried
+         */
+        public boolean update(int status, HttpHeaders headers) {
+            long now = System.currentTimeMillis();
+            String remainingHeader = header(headers, "X-RateLimit-Remaining", "Ratelimit-Remaining");
+            String resetAfter = headers.get("X-RateLimit-Reset-After");
+            String reset = headers.get("Ratelimit-Reset");
+            synchronized (this) {
+                if (remainingHeader != null) {
+                    remaining = parseInt(remainingHeader, -1);
+                }
+                if (resetAfter != null) {
+                    resetAt = now + parseMillis(resetAfter);
+                } else if (reset != null) {
+                    resetAt = parseMillis(reset);
+                }
+            }
+            if (status != HttpResponseStatus.TOO_MANY_REQUESTS.code()) {
+                return false;
+            }
+            rateLimited.incrementAndGet();
+            String retryAfterHeader = header(headers, "Retry-After", "X-RateLimit-Reset-After");
+            long retryAfter = retryAfterHeader == null ? 1000 : parseMillis(retryAfterHeader);
+            if ("true".equalsIgnoreCase(headers.get("X-RateLimit-Global")) || "global".equalsIgnoreCase(headers.get("X-RateLimit-Scope"))) {
+                log.warn("Hit global rate limit on {}, retrying in {}ms", route, retryAfter);
+                globalResetAt = Math.max(globalResetAt, now + retryAfter);
+            } else {
+                log.warn("Hit rate limit on {}, retrying in {}ms", route, retryAfter);
+                synchronized (this) {
+                    remaining = 0;
+                    resetAt = Math.max(resetAt, now + retryAfter);
+                }
+            }
+            return true;
+        }
+    }
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private volatile long globalResetAt;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+
+    /**
+     * Gets the bucket for a request. Numeric IDs in the path are folded together, except for the "major" parameters
+     * (channel, guild and webhook IDs) which have their own limits.
+     */
+    public Bucket getBucket(String method, String endpoint) {
+        return buckets.computeIfAbsent(method + " " + route(endpoint, true), key -> new Bucket(key, method + " " + route(endpoint, false)));
+    }
+
+    static String route(String endpoint) {
+        return route(endpoint, true);
+    }
+
+    /**
+     * Folds an endpoint into the route its bucket is known by. The route is logged, so the token of a webhook, which is
+     * all it takes to post through it, is replaced too.
+     *
+     * @param keepMajor
+     *            Whether to keep the major IDs, which is needed to tell buckets apart
+     */
+    static String route(String endpoint, boolean keepMajor) {
+        int query = endpoint.indexOf('?');
+        String[] parts = (query >= 0 ? endpoint.substring(0, query) : endpoint).split("/");
+        StringBuilder ret = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            boolean major = keepMajor && i > 0 && isMajor(parts[i - 1]);
+            if (i > 0) {
+                ret.append('/');
+            }
+            if (i > 1 && parts[i - 2].equalsIgnoreCase("webhooks")) {
+                ret.append("{token}");
+            } else {
+                ret.append(!major && ID.matcher(part).matches() ? "{id}" : part);
+            }
+        }
+        return ret.toString();
+    }
+
+    private static boolean isMajor(String parent) {
+        switch (parent.toLowerCase(Locale.ROOT)) {
+            case "channels":
+            case "guilds":
+            case "webhooks":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Nullable
+    private static String header(HttpHeaders headers, String... names) {
+        for (String name : names) {
+            String value = headers.get(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static int parseInt(String value, int fallback) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Parses a header given in (possibly fractional) seconds into milliseconds.
+     */
+    private static long parseMillis(String value) {
+        try {
+            return (long) (Double.parseDouble(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            return 1000;
+        }
+    }
+
+    /**
+     * @return The amount of requests currently waiting in a bucket
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * @return The total amount of requests that were held back to avoid hitting a limit
+     */
+    public long getDelayed() {
+        return delayed.get();
+    }
+
+    /**
+     * @return The total amount of 429 responses received
+     */
+    public long getRateLimited() {
+        return rateLimited.get();
+    }
+}
@@ -1,7 +1,7 @@
 package com.tterrag.chatmux.util.http;
 
-import java.io.IOException;
 import java.util.concurrent.Callable;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 
 import org.reactivestreams.Publisher;
@@ -10,12 +10,18 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.tterrag.chatmux.util.Diagnostics;
+import com.tterrag.chatmux.util.metrics.Callback;
+import com.tterrag.chatmux.util.metrics.Counter;
+import com.tterrag.chatmux.util.metrics.Histogram;
+import com.tterrag.chatmux.util.metrics.Metrics;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.util.CharsetUtil;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Mono;
 import reactor.netty.ByteBufMono;
@@ -24,24 +30,71 @@ import reactor.netty.http.client.HttpClient.RequestSender;
 import reactor.netty.http.client.HttpClient.ResponseReceiver;
 import reactor.netty.http.client.HttpClientResponse;
 import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
 
 @Slf4j
 public abstract class RequestHelper {
     
+    private static final Histogram REQUEST_LATENCY = Metrics.histogram("chatmux_http_request_seconds", "Time until the response headers of a REST request were received", "route");
+    private static final Counter RESPONSES = Metrics.counter("chatmux_http_responses_total", "REST responses by status code", "route", "status");
+    private static final Callback RATE_LIMIT_QUEUED = Metrics.gauge("chatmux_http_rate_limit_queued", "REST requests waiting in a rate limit bucket", "client");
+    private static final Callback RATE_LIMIT_DELAYED = Metrics.counterCallback("chatmux_http_rate_limit_delayed_total", "REST requests held back to avoid a rate limit", "client");
+    private static final Callback RATE_LIMITED = Metrics.counterCallback("chatmux_http_rate_limited_total", "REST responses with status 429", "client");
+    
     protected final @NonNull ObjectMapper mapper;
     
     protected final @NonNull HttpClient client;
     
+    /**
+     * The same as {@link #client}, with netty's wiretap logging. Only used when {@link Diagnostics#isVerbose()}.
+     */
+    private final HttpClient wiretapClient;
+    
+    @Getter
+    private final RateLimiter rateLimiter = new RateLimiter();
+    
     protected RequestHelper(ObjectMapper mapper, String baseUrl) {
         this.mapper = mapper;
         this.client = HttpClient.create()
                                 .baseUrl(baseUrl)
-                                .headers(this::addHeaders)
-                                .wiretap(true);
+                                .headers(this::addHeaders);
+        this.wiretapClient = client.wiretap(true);
+        
+        String name = getClass().getSimpleName();
+        RATE_LIMIT_QUEUED.register(rateLimiter::getQueued, name);
+        RATE_LIMIT_DELAYED.register(rateLimiter::getDelayed, name);
+        RATE_LIMITED.register(rateLimiter::getRateLimited, name);
     }
     
     protected RequestSender request(String endpoint, HttpMethod method) {
-        return client.request(method).uri(endpoint);
+        return (Diagnostics.isVerbose() ? wiretapClient : client).request(method).uri(endpoint);
+    }
+    
+    /**
+     * Sends a request through the {@link RateLimiter}, retrying it if it is rate limited.
+     * 
+     * @param payload
+     *            The body of the request, or null to send none
+     * @param handler
+     *            Handles the response, once it is known not to be a 429
+     */
+    protected <T> Mono<T> exchange(HttpMethod method, String endpoint, @Nullable Object payload, BiFunction<? super HttpClientResponse, ? super ByteBufMono, ? extends Mono<T>> handler) {
+        RateLimiter.Bucket bucket = rateLimiter.getBucket(method.name(), endpoint);
+        Histogram.Child latency = REQUEST_LATENCY.labels(bucket.getLabel());
+        Mono<T> attempt = Mono.defer(() -> {
+            long start = System.nanoTime();
+            RequestSender sender = request(endpoint, method);
+            ResponseReceiver<?> receiver = payload == null ? sender : sender.send(encodePayload(payload));
+            return receiver.<T>responseSingle((r, body) -> {
+                latency.observeNanos(System.nanoTime() - start);
+                RESPONSES.labels(bucket.getLabel(), Integer.toString(r.status().code())).inc();
+                if (bucket.update(r.status().code(), r.responseHeaders())) {
+                    return body.then(Mono.error(new RateLimiter.RateLimitedException(bucket.getRoute())));
+                }
+                return handler.apply(r, body);
+            });
+        });
+        return bucket.submit(attempt).doOnError(requestError(bucket));
     }
     
     protected abstract void addHeaders(HttpHeaders headers);
@@ -58,7 +111,9 @@ public abstract class RequestHelper {
         int response = resp.status().code();
         
         if (response / 100 != 2) {
-            return body.asString().flatMap(err -> Mono.error(new IOException(resp.method().asciiName() + " " + resp.uri() + " failed (" + resp.status().code() + ") " + err)));
+            // The route rather than the URI, which may hold a webhook token
+            String route = RateLimiter.route(resp.uri());
+            return body.asString().defaultIfEmpty("").flatMap(err -> Mono.error(new HttpStatusException(response, resp.method().asciiName() + " " + route + " failed (" + response + ") " + err)));
         }
         
         return body.asInputStream().map(is -> runUnchecked(() -> mapper.readValue(is, type)));
@@ -73,7 +128,7 @@ public abstract class RequestHelper {
     }
     
     public <T> Mono<T> get(String endpoint, JavaType type) {
-        return request(endpoint, HttpMethod.GET).<T>responseSingle((r, buf) -> handleResponse(r, buf, type)).doOnError(requestError(HttpMethod.GET, endpoint));
+        return exchange(HttpMethod.GET, endpoint, null, (r, buf) -> handleResponse(r, buf, type));
     }
     
     protected final Publisher<? extends ByteBuf> encodePayload(Object payload) {
@@ -82,6 +137,9 @@ public abstract class RequestHelper {
                 .map(json -> Unpooled.wrappedBuffer(json.getBytes(CharsetUtil.UTF_8)));
     }
     
+    /**
+     * Sends a raw POST request. Note that this bypasses the {@link RateLimiter}.
+     */
     public ResponseReceiver<?> post(String endpoint, Object payload) {
         return request(endpoint, HttpMethod.POST).send(encodePayload(payload));
     }
@@ -95,30 +153,26 @@ public abstract class RequestHelper {
     }
     
     public <T> Mono<T> post(String endpoint, Object payload, JavaType type) {
-        return post(endpoint, payload).<T>responseSingle((r, buf) -> handleResponse(r, buf, type)).doOnError(requestError(HttpMethod.POST, endpoint));
+        return exchange(HttpMethod.POST, endpoint, payload, (r, buf) -> handleResponse(r, buf, type));
     }
 
     protected Mono<Void> postVoid(String endpoint, Object payload) {
-        return post(endpoint, payload).response().doOnError(requestError(HttpMethod.POST, endpoint)).then();
+        return exchange(HttpMethod.POST, endpoint, payload, (r, buf) -> buf.then());
     }
     
     public Mono<Void> delete(String endpoint) {
-        return request(endpoint, HttpMethod.DELETE).response().doOnError(requestError(HttpMethod.DELETE, endpoint)).then();
+        return exchange(HttpMethod.DELETE, endpoint, null, (r, buf) -> buf.then());
     }
     
     public Mono<Void> put(String endpoint) {
-        return request(endpoint, HttpMethod.PUT).response().doOnError(requestError(HttpMethod.PUT, endpoint)).then();
+        return exchange(HttpMethod.PUT, endpoint, null, (r, buf) -> buf.then());
     }
     
     public Mono<Void> patch(String endpoint, Object payload) {
-        return request(endpoint, HttpMethod.PATCH)
-                .send(encodePayload(payload))
-                .response()
-                .doOnError(requestError(HttpMethod.PATCH, endpoint))
-                .then();
+        return exchange(HttpMethod.PATCH, endpoint, payload, (r, buf) -> buf.then());
     }
     
-    private Consumer<Throwable> requestError(HttpMethod method, String endpoint) {
-        return t -> log.error("Error during " + method.name() + " to " + endpoint, t);
+    private Consumer<Throwable> requestError(RateLimiter.Bucket bucket) {
+        return t -> log.error("Error during " + bucket.getRoute(), t);
     }
 }
@@ -0,0 +1,38 @@
+package com.tterrag.chatmux.util.metrics;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import reactor.core.Disposable;
+
+/**
+ * A metric whose values are read from elsewhere when scraped, such as the size of a queue or a count kept by another
+ * class.
+ */
+public class Callback extends MetricFamily<Supplier<? extends Number>> {
+
+    Callback(String name, String help, String type, String... labelNames) {
+        super(name, help, type, labelNames);
+    }
+
+    /**
+     * Registers a value for the given labels, replacing any previous one.
+     * 
+     * @return A {@link Disposable} which unregisters the value
+     */
+    public Disposable register(Supplier<? extends Number> value, String... labelValues) {
+        List<String> key = key(labelValues);
+        children.put(key, value);
+        return () -> children.remove(key, value);
+    }
+
+    @Override
+    public double sum() {
+        return children.values().stream().mapToDouble(s -> s.get().doubleValue()).sum();
+    }
+
+    @Override
+    protected void writeSamples(StringBuilder out) {
+        children.forEach((labels, value) -> writeSample(out, "", labels, value.get().doubleValue()));
+    }
+}
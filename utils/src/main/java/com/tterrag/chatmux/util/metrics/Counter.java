@@ -0,0 +1,44 @@
+package com.tterrag.chatmux.util.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A value which only goes up.
+ */
+public class Counter extends MetricFamily<Counter.Child> {
+
+    public static class Child {
+
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void inc(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    Counter(String name, String help, String... labelNames) {
+        super(name, help, "counter", labelNames);
+    }
+
+    public Child labels(String... labelValues) {
+        return child($ -> new Child(), labelValues);
+    }
+
+    @Override
+    public double sum() {
+        return children.values().stream().mapToLong(Child::get).sum();
+    }
+
+    @Override
+    protected void writeSamples(StringBuilder out) {
+        children.forEach((labels, child) -> writeSample(out, "", labels, child.get()));
+    }
+}
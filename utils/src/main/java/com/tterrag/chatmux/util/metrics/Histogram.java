@@ -0,0 +1,96 @@
+package com.tterrag.chatmux.util.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts observations, usually latencies in seconds, into fixed buckets.
+ */
+public class Histogram extends MetricFamily<Histogram.Child> {
+
+    /**
+     * Buckets from 1ms to 10s, for network latencies.
+     */
+    public static final double[] LATENCY_BUCKETS = { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+    public class Child {
+
+        private final LongAdder[] buckets = new LongAdder[bounds.length];
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Child() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void observe(double value) {
+            for (int i = 0; i < bounds.length; i++) {
+                if (value <= bounds[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            sum.add(value);
+        }
+
+        /**
+         * Observes a duration, converted to seconds.
+         */
+        public void observeNanos(long nanos) {
+            observe((double) nanos / TimeUnit.SECONDS.toNanos(1));
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getSum() {
+            return sum.sum();
+        }
+    }
+
+    private final double[] bounds;
+
+    Histogram(String name, String help, double[] bounds, String... labelNames) {
+        super(name, help, "histogram", labelNames);
+        this.bounds = bounds.clone();
+    }
+
+    public Child labels(String... labelValues) {
+        return child($ -> new Child(), labelValues);
+    }
+
+    /**
+     * @return The total amount of observations
+     */
+    @Override
+    public double sum() {
+        return children.values().stream().mapToLong(Child::getCount).sum();
+    }
+
+    /**
+     * @return The mean of all observations, or 0 if there are none
+     */
+    public double mean() {
+        long count = (long) sum();
+        return count == 0 ? 0 : children.values().stream().mapToDouble(Child::getSum).sum() / count;
+    }
+
+    @Override
+    protected void writeSamples(StringBuilder out) {
+        children.forEach((labels, child) -> {
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += child.buckets[i].sum();
+                writeSample(out, "_bucket", labels, cumulative, "le", formatValue(bounds[i]));
+            }
+            writeSample(out, "_bucket", labels, child.getCount(), "le", "+Inf");
+            writeSample(out, "_sum", labels, child.getSum());
+            writeSample(out, "_count", labels, child.getCount());
+        });
+    }
+}
@@ -0,0 +1,119 @@
+package com.tterrag.chatmux.util.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import lombok.Getter;
+
+/**
+ * A named metric, with one child per combination of label values.
+ */
+public abstract class MetricFamily<C> {
+
+    @Getter
+    private final String name;
+    @Getter
+    private final String help;
+    private final String type;
+    private final String[] labelNames;
+
+    protected final Map<List<String>, C> children = new ConcurrentHashMap<>();
+
+    protected MetricFamily(String name, String help, String type, String... labelNames) {
+        this.name = name;
+        this.help = help;
+        this.type = type;
+        this.labelNames = labelNames;
+    }
+
+    protected List<String> key(String... labelValues) {
+        if (labelValues.length != labelNames.length) {
+            throw new IllegalArgumentException("Expected labels " + Arrays.toString(labelNames) + " for " + name + ", got " + Arrays.toString(labelValues));
+        }
+        return Arrays.asList(labelValues);
+    }
+
+    protected C child(Function<List<String>, C> factory, String... labelValues) {
+        return children.computeIfAbsent(key(labelValues), factory);
+    }
+
+    /**
+     * Removes the child with the given label values once what it measures is gone, so that it is no longer exported.
+     * Whatever still holds on to the child may keep using it, but nothing it records is seen.
+     */
+    public void remove(String... labelValues) {
+        children.remove(key(labelValues));
+    }
+
+    /**
+     * @return The sum of the main value of all children, e.g. the total of a counter over all labels
+     */
+    public abstract double sum();
+
+    protected abstract void writeSamples(StringBuilder out);
+
+    void write(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ').append(escapeHelp(help)).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        writeSamples(out);
+    }
+
+    protected void writeSample(StringBuilder out, String suffix, List<String> labelValues, double value, String... extraLabel) {
+        out.append(name).append(suffix);
+        if (!labelValues.isEmpty() || extraLabel.length > 0) {
+            out.append('{');
+            boolean first = true;
+            for (int i = 0; i < labelNames.length; i++) {
+                first = writeLabel(out, first, labelNames[i], labelValues.get(i));
+            }
+            for (int i = 0; i + 1 < extraLabel.length; i += 2) {
+                first = writeLabel(out, first, extraLabel[i], extraLabel[i + 1]);
+            }
+            out.append('}');
+        }
+        out.append(' ').append(formatValue(value)).append('\n');
+    }
+
+    private static boolean writeLabel(StringBuilder out, boolean first, String name, String value) {
+        if (!first) {
+            out.append(',');
+        }
+        out.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+        out.append('"');
+        return false;
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    static String formatValue(double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            return "+Inf";
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            return "-Inf";
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,59 @@
+package com.tterrag.chatmux.util.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+import reactor.util.annotation.Nullable;
+
+/**
+ * The global metrics registry. Metrics are created on first use and shared by name after that, so the same metric can
+ * be looked up from anywhere.
+ */
+public final class Metrics {
+
+    private static final Map<String, MetricFamily<?>> families = new ConcurrentSkipListMap<>();
+
+    private Metrics() {}
+
+    public static Counter counter(String name, String help, String... labelNames) {
+        return get(name, () -> new Counter(name, help, labelNames), Counter.class);
+    }
+
+    public static Histogram histogram(String name, String help, String... labelNames) {
+        return get(name, () -> new Histogram(name, help, Histogram.LATENCY_BUCKETS, labelNames), Histogram.class);
+    }
+
+    public static Callback gauge(String name, String help, String... labelNames) {
+        return get(name, () -> new Callback(name, help, "gauge", labelNames), Callback.class);
+    }
+
+    /**
+     * A counter whose values are kept elsewhere, and read when scraped.
+     */
+    public static Callback counterCallback(String name, String help, String... labelNames) {
+        return get(name, () -> new Callback(name, help, "counter", labelNames), Callback.class);
+    }
+
+    private static <T extends MetricFamily<?>> T get(String name, Supplier<T> factory, Class<T> type) {
+        MetricFamily<?> family = families.computeIfAbsent(name, $ -> factory.get());
+        if (!type.isInstance(family)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.getClass().getSimpleName());
+        }
+        return type.cast(family);
+    }
+
+    @Nullable
+    public static MetricFamily<?> find(String name) {
+        return families.get(name);
+    }
+
+    /**
+     * @return All metrics, in the Prometheus text exposition format
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder();
+        families.values().forEach(f -> f.write(out));
+        return out.toString();
+    }
+}
@@ -0,0 +1,34 @@
+package com.tterrag.chatmux.util.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import org.junit.jupiter.api.Test;
+
+public class RateLimiterTest {
+
+    @Test
+    public void foldsMinorIds() {
+        assertEquals("/channels/123/messages/{id}", RateLimiter.route("/channels/123/messages/456"));
+        assertEquals("/users/{id}", RateLimiter.route("/users/789?with_counts=true"));
+    }
+
+    @Test
+    public void hidesWebhookToken() {
+        String route = RateLimiter.route("/webhooks/1/abc");
+        assertFalse(route.contains("abc"), route);
+        assertEquals("/webhooks/1/{token}", route);
+        assertEquals("/webhooks/1/{token}", RateLimiter.route("/webhooks/1/abc?wait=true"));
+        assertEquals("/webhooks/1/{token}/messages/{id}", RateLimiter.route("/webhooks/1/abc/messages/2"));
+        // As the response URI, under the base URL's path
+        assertEquals("/api/v8/webhooks/1/{token}", RateLimiter.route("/api/v8/webhooks/1/abc?wait=true"));
+    }
+
+    @Test
+    public void labelFoldsEveryId() {
+        RateLimiter.Bucket bucket = new RateLimiter().getBucket("POST", "/webhooks/123/abc?wait=true");
+        assertEquals("POST /webhooks/123/{token}", bucket.getRoute());
+        assertEquals("POST /webhooks/{id}/{token}", bucket.getLabel());
+        assertEquals("GET /channels/{id}/messages/{id}", new RateLimiter().getBucket("GET", "/channels/1/messages/2").getLabel());
+    }
+}